@@ -0,0 +1,78 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of a batch of short tokens: one {@code accept} call per token against {@code acceptAll}
+ * on one thread (interleaved walks only) and on all cores. The {@code words} counter reports tokens per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class BatchMatchingBenchmark {
+    @Param({"LOOP", "BATCH_SINGLE_THREAD", "BATCH"})
+    public String mode;
+
+    @Param({"1000", "1000000"})
+    public int states;
+
+    @Param({"1000000"})
+    public int batchSize;
+
+    private CompiledDeterministicStateMachine<Character> machine;
+    private List<String> words;
+    private ForkJoinPool pool;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Words {
+        public long words;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            words = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(states);
+        machine = Machines.randomDeterministic(random, states).compile();
+        words = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            words.add(Machines.text(random, 4 + random.nextInt(28)));
+        }
+        pool = mode.equals("BATCH") ? ForkJoinPool.commonPool() : new ForkJoinPool(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public BitSet acceptAll(Words counter) {
+        counter.words += words.size();
+        if (mode.equals("LOOP")) {
+            final BitSet result = new BitSet(words.size());
+            for (int i = 0; i < words.size(); i++) {
+                if (machine.accept(words.get(i))) {
+                    result.set(i);
+                }
+            }
+            return result;
+        }
+        return machine.acceptAll(words, pool);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of building machines: subset construction, minimization and product construction.
+ * Sequential determinization keeps every subset as a {@link java.util.BitSet}, so keyword machines
+ * for it are limited to 10^4 states; the compiled engines are measured on up to 10^6 states.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConstructionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Keywords {
+        @Param({"100", "1000", "10000"})
+        public int keywordStates;
+
+        NonDeterministicStateMachine<Character> nsm;
+
+        @Setup
+        public void setUp() {
+            nsm = Machines.keywords(new Random(keywordStates), keywordStates, 12);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LargeKeywords {
+        @Param({"100", "10000", "1000000"})
+        public int largeKeywordStates;
+
+        NonDeterministicStateMachine<Character> nsm;
+        ForkJoinPool pool;
+
+        @Setup
+        public void setUp() {
+            nsm = Machines.keywords(new Random(largeKeywordStates), largeKeywordStates, 12);
+            pool = new ForkJoinPool();
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RandomDeterministic {
+        @Param({"100", "10000", "1000000"})
+        public int states;
+
+        DeterministicStateMachine<Character> dsm;
+
+        @Setup
+        public void setUp() {
+            dsm = Machines.randomDeterministic(new Random(states), states);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Product {
+        @Param({"100", "1000"})
+        public int productStates;
+
+        DeterministicStateMachine<Character> first;
+        DeterministicStateMachine<Character> second;
+
+        @Setup
+        public void setUp() {
+            final Random random = new Random(productStates);
+            first = Machines.randomDeterministic(random, productStates);
+            second = Machines.randomDeterministic(random, productStates);
+        }
+    }
+
+    @Benchmark
+    public DeterministicStateMachine<Character> determine(Keywords keywords) {
+        return keywords.nsm.determine();
+    }
+
+    @Benchmark
+    public DeterministicStateMachine<Character> determineParallel(LargeKeywords keywords) {
+        return keywords.nsm.determine(keywords.pool);
+    }
+
+    @Benchmark
+    public CompiledNonDeterministicStateMachine<Character> compileNonDeterministic(LargeKeywords keywords) {
+        return keywords.nsm.compile();
+    }
+
+    @Benchmark
+    public CompiledDeterministicStateMachine<Character> compileDeterministic(RandomDeterministic random) {
+        return random.dsm.compile();
+    }
+
+    @Benchmark
+    public DeterministicStateMachine<Character> minimize(RandomDeterministic random) {
+        return random.dsm.minimize();
+    }
+
+    @Benchmark
+    public DeterministicStateMachine<Character> intersect(Product product) {
+        return product.first.intersect(product.second);
+    }
+}
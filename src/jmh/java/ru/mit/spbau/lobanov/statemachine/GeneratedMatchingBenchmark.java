@@ -0,0 +1,83 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table-driven matching against generated bytecode on small hot machines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class GeneratedMatchingBenchmark {
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+    private static final String DIGITS = "0123456789";
+
+    @Param({"IDENTIFIERS", "KEYWORDS"})
+    public String machine;
+
+    @Param({"TABLE", "GENERATED"})
+    public String engine;
+
+    @Param({"16", "1048576"})
+    public int inputLength;
+
+    private StateMachine<Character> matcher;
+    private byte[] input;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(inputLength);
+        final DeterministicStateMachine<Character> dsm;
+        final String text;
+        if (machine.equals("IDENTIFIERS")) {
+            dsm = identifiers();
+            final StringBuilder builder = new StringBuilder("_");
+            final String symbols = LETTERS + DIGITS + "_";
+            while (builder.length() < inputLength) {
+                builder.append(symbols.charAt(random.nextInt(symbols.length())));
+            }
+            text = builder.toString();
+        } else {
+            dsm = Machines.keywords(random, 64, 6).determine().minimize();
+            text = Machines.text(random, inputLength);
+        }
+        matcher = engine.equals("TABLE") ? dsm.compile() : dsm.generate();
+        input = text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public boolean accept(Bytes counter) {
+        counter.bytes += input.length;
+        return matcher.accept(input, 0, input.length);
+    }
+
+    private static DeterministicStateMachine<Character> identifiers() {
+        final DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(
+                new SimpleAlphabet(LETTERS + DIGITS + "_"));
+        final DeterministicStateMachine.State drain = dsm.addState(false);
+        final DeterministicStateMachine.State accepted = dsm.addState(true);
+        final DeterministicStateMachine.State initial = dsm.addState(false, accepted, "initial");
+        for (char c : DIGITS.toCharArray()) {
+            dsm.setEdge(initial, c, drain);
+        }
+        dsm.setInitialState(initial);
+        return dsm;
+    }
+}
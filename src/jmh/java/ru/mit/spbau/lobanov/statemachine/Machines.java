@@ -0,0 +1,93 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generators of machines and inputs shared by the benchmarks. All of them are deterministic for a given seed.
+ */
+final class Machines {
+    static final String LETTERS = "acgt";
+    static final Alphabet<Character> ALPHABET = new SimpleAlphabet(LETTERS);
+
+    private Machines() {
+    }
+
+    static DeterministicStateMachine<Character> randomDeterministic(Random random, int statesCount) {
+        final DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(ALPHABET);
+        final DeterministicStateMachine.State[] states = new DeterministicStateMachine.State[statesCount];
+        for (int i = 0; i < statesCount; i++) {
+            states[i] = dsm.addState(random.nextInt(4) == 0);
+        }
+        for (DeterministicStateMachine.State state : states) {
+            for (char c : LETTERS.toCharArray()) {
+                dsm.setEdge(state, c, states[random.nextInt(statesCount)]);
+            }
+        }
+        dsm.setInitialState(states[0]);
+        return dsm;
+    }
+
+    /**
+     * Every state has one or two successors by every symbol, so subset construction of such machine explodes,
+     * and it's only useful for simulation.
+     */
+    static NonDeterministicStateMachine<Character> randomNonDeterministic(Random random, int statesCount) {
+        final NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(ALPHABET);
+        final NonDeterministicStateMachine.State[] states = new NonDeterministicStateMachine.State[statesCount];
+        for (int i = 0; i < statesCount; i++) {
+            states[i] = nsm.addState(random.nextInt(4) == 0);
+        }
+        for (NonDeterministicStateMachine.State state : states) {
+            for (char c : LETTERS.toCharArray()) {
+                final int degree = 1 + random.nextInt(2);
+                for (int i = 0; i < degree; i++) {
+                    nsm.addEdge(state, c, states[random.nextInt(statesCount)]);
+                }
+            }
+        }
+        nsm.setInitialState(states[0]);
+        return nsm;
+    }
+
+    /**
+     * Machine which accepts words ending with one of random keywords: a loop in the initial state
+     * followed by a trie of the keywords. Keywords are added until the trie has {@code statesCount} states.
+     */
+    static NonDeterministicStateMachine<Character> keywords(Random random, int statesCount, int keywordLength) {
+        final NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(ALPHABET);
+        final NonDeterministicStateMachine.State initial = nsm.addState(false);
+        for (char c : LETTERS.toCharArray()) {
+            nsm.addEdge(initial, c, initial);
+        }
+        nsm.setInitialState(initial);
+        final Map<String, NonDeterministicStateMachine.State> trie = new HashMap<>();
+        trie.put("", initial);
+        int count = 1;
+        while (count < statesCount) {
+            final String keyword = text(random, keywordLength);
+            NonDeterministicStateMachine.State state = initial;
+            for (int i = 1; i <= keyword.length() && count < statesCount; i++) {
+                final String prefix = keyword.substring(0, i);
+                NonDeterministicStateMachine.State next = trie.get(prefix);
+                if (next == null) {
+                    next = nsm.addState(i == keyword.length());
+                    nsm.addEdge(state, keyword.charAt(i - 1), next);
+                    trie.put(prefix, next);
+                    count++;
+                }
+                state = next;
+            }
+        }
+        return nsm;
+    }
+
+    static String text(Random random, int length) {
+        final char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        }
+        return new String(text);
+    }
+}
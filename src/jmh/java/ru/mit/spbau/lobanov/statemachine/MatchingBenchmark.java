@@ -0,0 +1,83 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching throughput of every engine. Besides calls per second, the {@code bytes} counter reports
+ * input bytes per second; ns/symbol is its reciprocal.
+ * <p>
+ * Random non-deterministic machines can't be determinized, so the {@code DFA} engine runs a random
+ * deterministic machine of the same size for them. Their simulation keeps a constant fraction of states
+ * active, so large random machines are slow to simulate; narrow the run with {@code -p states=...} when needed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class MatchingBenchmark {
+    @Param({"RANDOM", "KEYWORDS"})
+    public String kind;
+
+    @Param({"DFA", "NFA", "LAZY"})
+    public String engine;
+
+    @Param({"100", "10000", "1000000"})
+    public int states;
+
+    @Param({"16", "1048576"})
+    public int inputLength;
+
+    private StateMachine<Character> machine;
+    private byte[] input;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(states);
+        final NonDeterministicStateMachine<Character> nsm = kind.equals("RANDOM")
+                ? Machines.randomNonDeterministic(random, states)
+                : Machines.keywords(random, states, 12);
+        switch (engine) {
+            case "DFA":
+                if (kind.equals("RANDOM")) {
+                    machine = Machines.randomDeterministic(random, states).compile();
+                } else {
+                    final ForkJoinPool pool = new ForkJoinPool();
+                    machine = nsm.determine(pool).compile();
+                    pool.shutdown();
+                }
+                break;
+            case "NFA":
+                machine = nsm.compile();
+                break;
+            case "LAZY":
+                machine = nsm.lazy(1024);
+                break;
+            default:
+                throw new RuntimeException("Unknown engine " + engine);
+        }
+        input = Machines.text(random, inputLength).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public boolean accept(Bytes counter) {
+        counter.bytes += input.length;
+        return machine.accept(input, 0, input.length);
+    }
+}
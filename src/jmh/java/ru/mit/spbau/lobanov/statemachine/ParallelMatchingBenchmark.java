@@ -0,0 +1,57 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential run of a small minimized machine over one long input against the speculative chunked run
+ * on the common pool. The {@code bytes} counter reports input bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ParallelMatchingBenchmark {
+    @Param({"SEQUENTIAL", "SPECULATIVE"})
+    public String mode;
+
+    @Param({"16", "256"})
+    public int keywords;
+
+    @Param({"67108864"})
+    public int inputLength;
+
+    private CompiledDeterministicStateMachine<Character> machine;
+    private byte[] input;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(keywords);
+        machine = Machines.keywords(random, keywords, 6).determine().minimize().compile();
+        input = Machines.text(random, inputLength).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public boolean accept(Bytes counter) {
+        counter.bytes += input.length;
+        return mode.equals("SEQUENTIAL")
+                ? machine.accept(input, 0, input.length)
+                : machine.acceptParallel(input, 0, input.length, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,70 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+abstract class AbstractMatcher implements Matcher {
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAPPED_WINDOW = 1L << 26;
+
+    private ByteBuffer byteBuffer;
+    private CharBuffer charBuffer;
+
+    @Override
+    public void feed(ReadableByteChannel input) throws IOException {
+        if (input instanceof FileChannel) {
+            feed((FileChannel) input);
+            return;
+        }
+        if (byteBuffer == null) {
+            byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        feed(input, byteBuffer);
+    }
+
+    @Override
+    public void feed(ReadableByteChannel input, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (!isDead() && input.read(buffer) != -1) {
+            buffer.flip();
+            feed(buffer);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void feed(Reader input) throws IOException {
+        if (charBuffer == null) {
+            charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+        }
+        feed(input, charBuffer);
+    }
+
+    @Override
+    public void feed(Reader input, CharBuffer buffer) throws IOException {
+        buffer.clear();
+        while (!isDead() && input.read(buffer) != -1) {
+            buffer.flip();
+            feed(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Maps the rest of the file window by window, so its bytes are matched in place instead of being read.
+     */
+    private void feed(FileChannel input) throws IOException {
+        final long size = input.size();
+        long position = input.position();
+        while (!isDead() && position < size) {
+            final long length = Math.min(MAPPED_WINDOW, size - position);
+            feed(input.map(FileChannel.MapMode.READ_ONLY, position, length));
+            position += length;
+        }
+        input.position(position);
+    }
+}
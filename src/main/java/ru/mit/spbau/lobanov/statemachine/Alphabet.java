@@ -1,15 +1,58 @@
 package ru.mit.spbau.lobanov.statemachine;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class Alphabet<L> {
     abstract L getSymbol(int index);
     abstract int getIndex(L symbol);
     abstract int size();
 
+    int charIndexLimit() {
+        return 0;
+    }
+
+    /**
+     * Returns the index of a char, or -1 if it isn't in the alphabet. Alphabets of chars override it
+     * with a table lookup, others look the boxed char up with {@link #getIndex}.
+     */
+    int getCharIndex(char symbol) {
+        return getBoxedIndex(symbol);
+    }
+
+    /**
+     * Same as {@link #getCharIndex} for bytes.
+     */
+    int getByteIndex(byte symbol) {
+        return getBoxedIndex(symbol);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int getBoxedIndex(Object symbol) {
+        try {
+            return getIndex((L) symbol);
+        } catch (ClassCastException e) {
+            // symbols of the alphabet have another type, so the char or byte isn't one of them
+            return -1;
+        }
+    }
+
+    List<L> getSymbols(int[] indices) {
+        if (indices == null) {
+            return null;
+        }
+        final List<L> symbols = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            symbols.add(getSymbol(index));
+        }
+        return symbols;
+    }
+
     public final boolean isIdentical(Alphabet<L> another) {
         if (another == this) {
             return true;
         }
-        if (another.size() != another.size()) {
+        if (another.size() != size()) {
             return false;
         }
         for (int i = 0; i < size(); i++) {
@@ -0,0 +1,59 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a batch of words into ranges matched on a {@link ForkJoinPool}.
+ * Range bounds are multiples of 64, so every range sets bits in its own words of the result.
+ */
+final class BatchMatching {
+    private static final int GRAIN = 1024;
+
+    private BatchMatching() {
+    }
+
+    static BitSet run(int count, ForkJoinPool pool, Range range) {
+        final long[] result = new long[(count + 63) >>> 6];
+        if (count <= GRAIN) {
+            range.match(0, count, result);
+        } else {
+            pool.invoke(new Split(range, 0, count, result));
+        }
+        return BitSet.valueOf(result);
+    }
+
+    interface Range {
+        /**
+         * Sets bits of accepted words from {@code [from, to)} in the result.
+         */
+        void match(int from, int to, long[] result);
+    }
+
+    private static class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Range range;
+        private final int from;
+        private final int to;
+        private final long[] result;
+
+        private Split(Range range, int from, int to, long[] result) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                range.match(from, to, result);
+                return;
+            }
+            final int middle = ((from + to) >>> 1) & ~63;
+            invokeAll(new Split(range, from, middle, result), new Split(range, middle, to, result));
+        }
+    }
+}
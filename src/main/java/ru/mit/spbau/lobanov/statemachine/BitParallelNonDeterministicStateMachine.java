@@ -0,0 +1,251 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Simulation of a small non-deterministic machine on bit masks of active states.
+ * For every class of symbols, states are split into groups of four and the union of successors
+ * of every subset of a group is precomputed, so a step is one table lookup and one OR per non-empty group.
+ * A machine of up to 64 states is simulated on a single {@code long}.
+ * Dead states are dropped from the tables, so the simulation stops as soon as the mask becomes empty.
+ */
+public class BitParallelNonDeterministicStateMachine<L> implements FrozenStateMachine<L> {
+    public static final int MAX_STATES_COUNT = 512;
+
+    private final CompiledNonDeterministicStateMachine<L> nsm;
+    private final Alphabet<L> alphabet;
+    private final SymbolClasses classes;
+    private final int words;
+    private final int groups;
+    private final long[] table;
+    private final long[] initial;
+    private final long[] terminals;
+
+    BitParallelNonDeterministicStateMachine(CompiledNonDeterministicStateMachine<L> nsm) {
+        final int statesCount = nsm.getStatesCount();
+        if (statesCount > MAX_STATES_COUNT) {
+            throw new RuntimeException("Machine has " + statesCount + " states, bit-parallel simulation supports "
+                    + MAX_STATES_COUNT);
+        }
+        this.nsm = nsm;
+        this.alphabet = nsm.getAlphabet();
+        this.classes = nsm.getSymbolClasses();
+        this.words = Math.max((statesCount + 63) >>> 6, 1);
+        this.groups = words * 16;
+        this.table = new long[classes.count() * groups * 16 * words];
+        for (int c = 0; c < classes.count(); c++) {
+            for (int q = 0; q < statesCount; q++) {
+                if (nsm.isDead(q)) {
+                    continue;
+                }
+                final int bit = 1 << (q & 3);
+                final int row = ((c * groups + (q >>> 2)) * 16 + bit) * words;
+                for (int i = nsm.successorsStart(q, c); i < nsm.successorsEnd(q, c); i++) {
+                    final int target = nsm.successor(i);
+                    if (!nsm.isDead(target)) {
+                        table[row + (target >>> 6)] |= 1L << target;
+                    }
+                }
+            }
+            for (int g = 0; g < groups; g++) {
+                final int base = (c * groups + g) * 16;
+                for (int subset = 3; subset < 16; subset++) {
+                    final int lowest = subset & -subset;
+                    if (subset != lowest) {
+                        for (int w = 0; w < words; w++) {
+                            table[(base + subset) * words + w] = table[(base + lowest) * words + w]
+                                    | table[(base + (subset ^ lowest)) * words + w];
+                        }
+                    }
+                }
+            }
+        }
+        this.initial = new long[words];
+        if (!nsm.isDead(nsm.getInitialState())) {
+            initial[nsm.getInitialState() >>> 6] |= 1L << nsm.getInitialState();
+        }
+        this.terminals = new long[words];
+        for (int q = 0; q < statesCount; q++) {
+            if (nsm.isTerminal(q)) {
+                terminals[q >>> 6] |= 1L << q;
+            }
+        }
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> classes.ofIndex(alphabet.getIndex(word[i])));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> classes.ofChar(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> classes.ofChar(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> classes.ofByte(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code classAt} returns the class of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator classAt) {
+        if (words == 1) {
+            long active = initial[0];
+            int i = 0;
+            for (; i < length && active != 0; i++) {
+                final int index = classAt.applyAsInt(i);
+                if (index < 0) {
+                    return StateMachineMetrics.matched(false, i + 1, true);
+                }
+                active = step(active, index);
+            }
+            return StateMachineMetrics.matched((active & terminals[0]) != 0, i, i < length);
+        }
+        final Simulation simulation = new Simulation();
+        for (int i = 0; i < length; i++) {
+            final int index = classAt.applyAsInt(i);
+            if (index < 0 || !simulation.step(index)) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+        }
+        return StateMachineMetrics.matched(simulation.isAccepting(), length, false);
+    }
+
+    @Override
+    public Matcher matcher() {
+        return new BitParallelMatcher();
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        nsm.writeStateMachine(out, writer);
+    }
+
+    private long step(long active, int symbolClass) {
+        final int base = symbolClass * groups * 16;
+        long next = 0;
+        while (active != 0) {
+            final int shift = Long.numberOfTrailingZeros(active) & ~3;
+            next |= table[base + (shift << 2) + (int) ((active >>> shift) & 15)];
+            active &= ~(15L << shift);
+        }
+        return next;
+    }
+
+    private class Simulation {
+        private long[] active = initial.clone();
+        private long[] next = new long[words];
+
+        /**
+         * Returns false if no state is active after the step.
+         */
+        boolean step(int symbolClass) {
+            final int base = symbolClass * groups * 16;
+            long any = 0;
+            for (int w = 0; w < words; w++) {
+                long mask = active[w];
+                while (mask != 0) {
+                    final int shift = Long.numberOfTrailingZeros(mask) & ~3;
+                    final int row = (base + (w * 16 + (shift >>> 2)) * 16 + (int) ((mask >>> shift) & 15)) * words;
+                    for (int v = 0; v < words; v++) {
+                        next[v] |= table[row + v];
+                    }
+                    mask &= ~(15L << shift);
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                any |= next[w];
+                active[w] = 0;
+            }
+            final long[] tmp = active;
+            active = next;
+            next = tmp;
+            return any != 0;
+        }
+
+        boolean isAccepting() {
+            for (int w = 0; w < words; w++) {
+                if ((active[w] & terminals[w]) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            for (long mask : active) {
+                if (mask != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            for (int w = 0; w < words; w++) {
+                active[w] = 0;
+            }
+        }
+
+        void reset() {
+            System.arraycopy(initial, 0, active, 0, words);
+        }
+    }
+
+    private class BitParallelMatcher extends AbstractMatcher {
+        private final Simulation simulation = new Simulation();
+
+        @Override
+        public void feed(ByteBuffer input) {
+            while (input.hasRemaining()) {
+                final int index = classes.ofByte(input.get());
+                if (index < 0) {
+                    simulation.clear();
+                    input.position(input.limit());
+                    break;
+                }
+                simulation.step(index);
+            }
+        }
+
+        @Override
+        public void feed(CharBuffer input) {
+            while (input.hasRemaining()) {
+                final int index = classes.ofChar(input.get());
+                if (index < 0) {
+                    simulation.clear();
+                    input.position(input.limit());
+                    break;
+                }
+                simulation.step(index);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return simulation.isAccepting();
+        }
+
+        @Override
+        public boolean isDead() {
+            return simulation.isEmpty();
+        }
+
+        @Override
+        public void reset() {
+            simulation.reset();
+        }
+    }
+}
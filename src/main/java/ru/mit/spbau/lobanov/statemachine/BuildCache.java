@@ -0,0 +1,62 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache of constructions. When a {@link ResultCache} is installed, determinization,
+ * minimization, products and inversion look the result up by the operation and the structural hashes
+ * of their arguments before computing it, and store computed results.
+ * <p>
+ * Results taken from the cache have the same states, edges and numbering as computed ones,
+ * but states of inverted machines are the only ones which keep their labels.
+ */
+public final class BuildCache {
+    /**
+     * Changes whenever results of some operation may change, so old entries are never used.
+     */
+    private static final String VERSION = "1";
+
+    private static volatile ResultCache cache;
+
+    private BuildCache() {
+    }
+
+    public static void setCache(@Nullable ResultCache cache) {
+        BuildCache.cache = cache;
+    }
+
+    @Nullable
+    public static ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the result of {@code build}, or the cached one; the key is computed only if a cache is installed.
+     */
+    @SuppressWarnings("unchecked")
+    static <L> DeterministicStateMachine<L> cached(Alphabet<L> alphabet, Supplier<String> key,
+                                                   Supplier<DeterministicStateMachine<L>> build) {
+        final ResultCache current = cache;
+        if (current == null) {
+            return build.get();
+        }
+        final String hash = key.get();
+        final CompiledDeterministicStateMachine<?> hit = current.get(hash);
+        if (hit != null && alphabet.isIdentical((Alphabet<L>) hit.getAlphabet())) {
+            return DeterministicStateMachine.fromCompiled(alphabet, hit);
+        }
+        final DeterministicStateMachine<L> result = build.get();
+        current.put(hash, result.compile());
+        return result;
+    }
+
+    static String key(String operation, String... hashes) {
+        final String[] parts = new String[hashes.length + 2];
+        parts[0] = VERSION;
+        parts[1] = operation;
+        System.arraycopy(hashes, 0, parts, 2, hashes.length);
+        return StructuralHash.of(parts);
+    }
+}
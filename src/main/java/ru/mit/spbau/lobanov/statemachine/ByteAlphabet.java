@@ -0,0 +1,49 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+
+public class ByteAlphabet extends Alphabet<Byte> {
+    private final byte[] symbols;
+    private final int[] indices = new int[256];
+
+    public ByteAlphabet(byte... symbols) {
+        this.symbols = symbols.clone();
+        Arrays.fill(indices, -1);
+        for (int i = 0; i < symbols.length; i++) {
+            if (indices[symbols[i] & 0xFF] != -1) {
+                throw new RuntimeException();
+            }
+            indices[symbols[i] & 0xFF] = i;
+        }
+    }
+
+    @Override
+    public Byte getSymbol(int index) {
+        return symbols[index];
+    }
+
+    @Override
+    public int getIndex(Byte symbol) {
+        return getByteIndex(symbol);
+    }
+
+    @Override
+    int getByteIndex(byte symbol) {
+        return indices[symbol & 0xFF];
+    }
+
+    @Override
+    int charIndexLimit() {
+        return indices.length;
+    }
+
+    @Override
+    int getCharIndex(char symbol) {
+        return symbol < 256 ? indices[symbol] : -1;
+    }
+
+    @Override
+    public int size() {
+        return symbols.length;
+    }
+}
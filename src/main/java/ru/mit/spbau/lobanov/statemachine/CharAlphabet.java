@@ -0,0 +1,54 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+
+public class CharAlphabet extends Alphabet<Character> {
+    private final char[] symbols;
+    private final int[] indices;
+
+    public CharAlphabet(String alphabet) {
+        symbols = alphabet.toCharArray();
+        int maxSymbol = -1;
+        for (char symbol : symbols) {
+            maxSymbol = Math.max(maxSymbol, symbol);
+        }
+        indices = new int[maxSymbol + 1];
+        Arrays.fill(indices, -1);
+        for (int i = 0; i < symbols.length; i++) {
+            if (indices[symbols[i]] != -1) {
+                throw new RuntimeException();
+            }
+            indices[symbols[i]] = i;
+        }
+    }
+
+    @Override
+    public Character getSymbol(int index) {
+        return symbols[index];
+    }
+
+    @Override
+    public int getIndex(Character symbol) {
+        return getCharIndex(symbol);
+    }
+
+    @Override
+    int charIndexLimit() {
+        return indices.length;
+    }
+
+    @Override
+    int getCharIndex(char symbol) {
+        return symbol < indices.length ? indices[symbol] : -1;
+    }
+
+    @Override
+    int getByteIndex(byte symbol) {
+        return getCharIndex((char) (symbol & 0xFF));
+    }
+
+    @Override
+    public int size() {
+        return symbols.length;
+    }
+}
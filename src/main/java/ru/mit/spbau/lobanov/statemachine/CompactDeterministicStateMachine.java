@@ -0,0 +1,420 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Deterministic machine for very large automata. States are plain ints and are kept in struct-of-arrays form:
+ * transitions are one flat int array with a row per state, terminal states are a bitmap and labels, if any,
+ * are interned strings referenced by index. Transitions can live on the heap or in direct buffers outside of it,
+ * in both cases they take one object per chunk of 65536 ints instead of one per state, so the garbage collector
+ * has little to trace.
+ */
+public class CompactDeterministicStateMachine<L> implements StateMachine<L> {
+    private final Alphabet<L> alphabet;
+    private final Storage storage;
+    private final int size;
+    private final IntStorage transitions;
+    private long[] terminals = new long[1];
+    private int statesCount;
+    private int initialState = -1;
+    private IntStorage labels;
+    private final List<String> labelValues = new ArrayList<>();
+    private final Map<String, Integer> labelIds = new HashMap<>();
+    private CompiledDeterministicStateMachine<L> compiled;
+
+    public CompactDeterministicStateMachine(Alphabet<L> alphabet) {
+        this(alphabet, Storage.HEAP);
+    }
+
+    public CompactDeterministicStateMachine(Alphabet<L> alphabet, Storage storage) {
+        this(alphabet, storage, storage.create());
+    }
+
+    private CompactDeterministicStateMachine(Alphabet<L> alphabet, Storage storage, IntStorage transitions) {
+        this.alphabet = alphabet;
+        this.storage = storage;
+        this.size = alphabet.size();
+        this.transitions = transitions;
+    }
+
+    /**
+     * Adds a state whose transitions all lead to itself and returns its number.
+     */
+    public int addState(boolean isTerminal) {
+        return addState(isTerminal, statesCount);
+    }
+
+    /**
+     * Adds a state whose transitions all lead to {@code defaultTarget} and returns its number.
+     */
+    public int addState(boolean isTerminal, int defaultTarget) {
+        if (defaultTarget < 0 || defaultTarget > statesCount) {
+            throw new RuntimeException("Unknown state " + defaultTarget);
+        }
+        final int state = statesCount++;
+        final long row = (long) state * size;
+        transitions.ensureCapacity(row + size);
+        transitions.fill(row, row + size, defaultTarget);
+        if ((state >>> 6) == terminals.length) {
+            terminals = Arrays.copyOf(terminals, terminals.length * 2);
+        }
+        if (isTerminal) {
+            terminals[state >>> 6] |= 1L << state;
+        } else {
+            terminals[state >>> 6] &= ~(1L << state);
+        }
+        if (labels != null) {
+            labels.ensureCapacity(statesCount);
+            labels.set(state, -1);
+        }
+        compiled = null;
+        return state;
+    }
+
+    public int addState(boolean isTerminal, @NotNull String label) {
+        final int state = addState(isTerminal);
+        setLabel(state, label);
+        return state;
+    }
+
+    public void setLabel(int state, @NotNull String label) {
+        checkState(state);
+        if (labels == null) {
+            labels = IntStorage.heap();
+            labels.ensureCapacity(statesCount);
+            labels.fill(0, statesCount, -1);
+        }
+        Integer id = labelIds.get(label);
+        if (id == null) {
+            id = labelValues.size();
+            labelValues.add(label);
+            labelIds.put(label, id);
+        }
+        labels.set(state, id);
+    }
+
+    public String getLabel(int state) {
+        checkState(state);
+        final int id = labels == null ? -1 : labels.get(state);
+        return id == -1 ? Integer.toString(state) : labelValues.get(id);
+    }
+
+    public void setEdge(int from, @NotNull L key, int to) {
+        checkState(from);
+        checkState(to);
+        final int index = alphabet.getIndex(key);
+        if (index < 0) {
+            throw new RuntimeException("Symbol " + key + " is not in the alphabet");
+        }
+        transitions.set((long) from * size + index, to);
+        compiled = null;
+    }
+
+    public void setInitialState(int state) {
+        checkState(state);
+        initialState = state;
+        compiled = null;
+    }
+
+    public int getInitialState() {
+        return initialState;
+    }
+
+    public int getStatesCount() {
+        return statesCount;
+    }
+
+    public boolean isTerminal(int state) {
+        return (terminals[state >>> 6] & (1L << state)) != 0;
+    }
+
+    public int getTransition(int state, int symbolIndex) {
+        return transitions.get((long) state * size + symbolIndex);
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> alphabet.getIndex(word[i]));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> alphabet.getCharIndex(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> alphabet.getCharIndex(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> alphabet.getByteIndex(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code indexAt} returns the index of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator indexAt) {
+        int state = initialState();
+        for (int i = 0; i < length; i++) {
+            final int index = indexAt.applyAsInt(i);
+            if (index < 0) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            state = transitions.get((long) state * size + index);
+        }
+        return StateMachineMetrics.matched(isTerminal(state), length, false);
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.deterministic(alphabet, statesCount, initialState, this::isTerminal,
+                this::getLabel, this::getTransition), out);
+    }
+
+    /**
+     * Returns the heap form of the machine and keeps it until the machine is changed.
+     * The form has a column per class of symbols and is limited to {@code Integer.MAX_VALUE - 8} cells.
+     */
+    public CompiledDeterministicStateMachine<L> compile() {
+        CompiledDeterministicStateMachine<L> result = compiled;
+        if (result == null) {
+            result = compileTransient();
+            compiled = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the heap form of the machine without keeping it, so a temporary use doesn't pin a heap copy
+     * of the transitions next to the storage.
+     */
+    private CompiledDeterministicStateMachine<L> compileTransient() {
+        final CompiledDeterministicStateMachine<L> result = compiled;
+        if (result != null) {
+            return result;
+        }
+        final SymbolClasses classes = symbolClasses();
+        return new CompiledDeterministicStateMachine<>(alphabet, classes, statesCount, terminals.clone(),
+                initialState(), compress(classes));
+    }
+
+    /**
+     * Returns the minimal machine with the same storage. Hopcroft's algorithm runs on a heap table
+     * with a column per class of symbols, which is usually much smaller than the machine itself;
+     * machines whose table doesn't fit in an array are rejected before anything is allocated.
+     */
+    public CompactDeterministicStateMachine<L> minimize() {
+        final StateMachineMetrics.Construction construction = StateMachineMetrics.start(
+                ConstructionStats.Operation.MINIMIZE, statesCount, (long) statesCount * size);
+        final SymbolClasses classes = symbolClasses();
+        final int count = classes.count();
+        final int[] table = compress(classes);
+        final int[] partition = HopcroftMinimizer.minimize(statesCount, count, table, terminals, initialState());
+        int minimizedCount = 0;
+        for (int id : partition) {
+            minimizedCount = Math.max(minimizedCount, id + 1);
+        }
+        final int[] minimizedTable = new int[minimizedCount * count];
+        final long[] minimizedTerminals = new long[(minimizedCount + 63) >>> 6];
+        final boolean[] filled = new boolean[minimizedCount];
+        for (int q = 0; q < statesCount; q++) {
+            final int id = partition[q];
+            if (id == -1 || filled[id]) {
+                continue;
+            }
+            filled[id] = true;
+            for (int c = 0; c < count; c++) {
+                minimizedTable[id * count + c] = partition[table[q * count + c]];
+            }
+            if (isTerminal(q)) {
+                minimizedTerminals[id >>> 6] |= 1L << id;
+            }
+        }
+        final CompactDeterministicStateMachine<L> minimized = fromClassTable(alphabet, classes, minimizedCount,
+                minimizedTable, minimizedTerminals, partition[initialState], storage);
+        StateMachineMetrics.finish(construction, minimizedCount, (long) minimizedCount * size);
+        return minimized;
+    }
+
+    public CompactDeterministicStateMachine<L> intersect(CompactDeterministicStateMachine<L> another) {
+        return intersect(another, false);
+    }
+
+    public CompactDeterministicStateMachine<L> intersect(CompactDeterministicStateMachine<L> another,
+                                                         boolean minimize) {
+        return product(another, ProductConstruction.Operation.INTERSECTION, minimize);
+    }
+
+    public CompactDeterministicStateMachine<L> union(CompactDeterministicStateMachine<L> another) {
+        return union(another, false);
+    }
+
+    public CompactDeterministicStateMachine<L> union(CompactDeterministicStateMachine<L> another, boolean minimize) {
+        return product(another, ProductConstruction.Operation.UNION, minimize);
+    }
+
+    public CompactDeterministicStateMachine<L> difference(CompactDeterministicStateMachine<L> another) {
+        return difference(another, false);
+    }
+
+    public CompactDeterministicStateMachine<L> difference(CompactDeterministicStateMachine<L> another,
+                                                          boolean minimize) {
+        return product(another, ProductConstruction.Operation.DIFFERENCE, minimize);
+    }
+
+    public CompactDeterministicStateMachine<L> symmetricDifference(CompactDeterministicStateMachine<L> another) {
+        return symmetricDifference(another, false);
+    }
+
+    public CompactDeterministicStateMachine<L> symmetricDifference(CompactDeterministicStateMachine<L> another,
+                                                                   boolean minimize) {
+        return product(another, ProductConstruction.Operation.SYMMETRIC_DIFFERENCE, minimize);
+    }
+
+    private CompactDeterministicStateMachine<L> product(CompactDeterministicStateMachine<L> another,
+                                                        ProductConstruction.Operation operation, boolean minimize) {
+        if (!alphabet.isIdentical(another.alphabet)) {
+            throw new RuntimeException("Machines have different alphabets");
+        }
+        return ProductConstruction.build(compileTransient(), another.compileTransient(), operation, minimize,
+                storage);
+    }
+
+    public CompactDeterministicStateMachine<L> invert() {
+        final CompactDeterministicStateMachine<L> inverted = new CompactDeterministicStateMachine<>(alphabet, storage,
+                transitions.copy((long) statesCount * size));
+        inverted.statesCount = statesCount;
+        inverted.initialState = initialState;
+        inverted.terminals = new long[terminals.length];
+        for (int i = 0; i < (statesCount + 63) >>> 6; i++) {
+            inverted.terminals[i] = ~terminals[i];
+        }
+        if (statesCount % 64 != 0) {
+            inverted.terminals[statesCount >>> 6] &= (1L << statesCount) - 1;
+        }
+        if (labels != null) {
+            inverted.labels = labels.copy(statesCount);
+            inverted.labelValues.addAll(labelValues);
+            inverted.labelIds.putAll(labelIds);
+        }
+        return inverted;
+    }
+
+    public DeterministicStateMachine<L> toDeterministic() {
+        return DeterministicStateMachine.fromCompact(this);
+    }
+
+    Alphabet<L> getAlphabet() {
+        return alphabet;
+    }
+
+    /**
+     * Builds a machine from a table with a column per class of symbols.
+     */
+    static <L> CompactDeterministicStateMachine<L> fromClassTable(Alphabet<L> alphabet, SymbolClasses classes,
+                                                                  int statesCount, int[] table, long[] terminals,
+                                                                  int initialState, Storage storage) {
+        final CompactDeterministicStateMachine<L> machine = new CompactDeterministicStateMachine<>(alphabet, storage);
+        final int count = classes.count();
+        for (int q = 0; q < statesCount; q++) {
+            machine.addState((terminals[q >>> 6] & (1L << q)) != 0);
+        }
+        for (int q = 0; q < statesCount; q++) {
+            for (int s = 0; s < machine.size; s++) {
+                machine.setTarget(q, s, table[q * count + classes.ofIndex(s)]);
+            }
+        }
+        machine.setInitialState(initialState);
+        return machine;
+    }
+
+    void setTarget(int state, int symbolIndex, int target) {
+        transitions.set((long) state * size + symbolIndex, target);
+        compiled = null;
+    }
+
+    private SymbolClasses symbolClasses() {
+        return SymbolClasses.compute(alphabet, new SymbolClasses.Columns() {
+            @Override
+            public long hash(int symbol) {
+                long hash = 0;
+                for (int q = 0; q < statesCount; q++) {
+                    hash = hash * 1_000_000_007L + getTransition(q, symbol);
+                }
+                return hash;
+            }
+
+            @Override
+            public boolean equal(int a, int b) {
+                for (int q = 0; q < statesCount; q++) {
+                    if (getTransition(q, a) != getTransition(q, b)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    private int[] compress(SymbolClasses classes) {
+        final int count = classes.count();
+        final long tableSize = (long) statesCount * count;
+        if (tableSize > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("Table of " + statesCount + " states and " + count
+                    + " classes of symbols doesn't fit in an array");
+        }
+        final int[] table = new int[(int) tableSize];
+        for (int q = 0; q < statesCount; q++) {
+            for (int c = 0; c < count; c++) {
+                table[q * count + c] = getTransition(q, classes.representative(c));
+            }
+        }
+        return table;
+    }
+
+    private int initialState() {
+        if (initialState == -1) {
+            throw new RuntimeException("Initial state is not set");
+        }
+        return initialState;
+    }
+
+    private void checkState(int state) {
+        if (state < 0 || state >= statesCount) {
+            throw new RuntimeException("Unknown state " + state);
+        }
+    }
+
+    public enum Storage {
+        HEAP {
+            @Override
+            IntStorage create() {
+                return IntStorage.heap();
+            }
+        },
+        DIRECT {
+            @Override
+            IntStorage create() {
+                return IntStorage.direct();
+            }
+        };
+
+        abstract IntStorage create();
+    }
+}
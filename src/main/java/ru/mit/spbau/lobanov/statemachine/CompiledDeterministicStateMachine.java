@@ -0,0 +1,462 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Immutable table-driven form of {@link DeterministicStateMachine}.
+ * Symbols which behave identically in every state share a class, and transitions are stored
+ * in one flat array with a column per class and rows premultiplied by the number of classes,
+ * so every step of the run loop is one class lookup and one array load. Transitions into decided states
+ * (dead ones and ones from which every continuation is accepted) are stored bitwise inverted,
+ * so the run loop stops on them with a single sign check.
+ */
+public class CompiledDeterministicStateMachine<L> implements FrozenStateMachine<L> {
+    private static final int LANES = 4;
+
+    private final Alphabet<L> alphabet;
+    private final SymbolClasses classes;
+    private final int statesCount;
+    private final int stride;
+    private final int[] transitions;
+    private final long[] terminals;
+    private final long[] live;
+    private final long[] alwaysAccepting;
+    private final int initialOffset;
+
+    CompiledDeterministicStateMachine(Alphabet<L> alphabet, int statesCount, int[] targets,
+                                      long[] terminals, int initialState) {
+        this(alphabet, SymbolClasses.forTable(alphabet, statesCount, targets), statesCount, targets, terminals,
+                initialState);
+    }
+
+    private CompiledDeterministicStateMachine(Alphabet<L> alphabet, SymbolClasses classes, int statesCount,
+                                              int[] targets, long[] terminals, int initialState) {
+        this(alphabet, classes, statesCount, terminals, initialState, classes.compress(statesCount, targets));
+    }
+
+    /**
+     * Creates the machine from a table which already has a column per class of symbols; the table is reused.
+     */
+    CompiledDeterministicStateMachine(Alphabet<L> alphabet, SymbolClasses classes, int statesCount,
+                                      long[] terminals, int initialState, int[] compressed) {
+        this.alphabet = alphabet;
+        this.classes = classes;
+        this.statesCount = statesCount;
+        final int count = classes.count();
+        this.stride = Math.max(count, 1);
+        this.terminals = terminals;
+        this.initialOffset = initialState * stride;
+        final int[] rows = new int[statesCount + 1];
+        for (int state = 0; state <= statesCount; state++) {
+            rows[state] = state * count;
+        }
+        this.live = Reachability.coReachable(statesCount, rows, compressed, terminals);
+        final long[] nonTerminals = new long[terminals.length];
+        for (int i = 0; i < terminals.length; i++) {
+            nonTerminals[i] = ~terminals[i];
+        }
+        this.alwaysAccepting = Reachability.coReachable(statesCount, rows, compressed, nonTerminals);
+        for (int i = 0; i < alwaysAccepting.length; i++) {
+            alwaysAccepting[i] = ~alwaysAccepting[i];
+        }
+        this.transitions = compressed;
+        for (int i = 0; i < compressed.length; i++) {
+            final int target = compressed[i];
+            transitions[i] = isDead(target) || isAlwaysAccepting(target) ? ~(target * stride) : target * stride;
+        }
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> classes.ofIndex(alphabet.getIndex(word[i])));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> classes.ofChar(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> classes.ofChar(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> classes.ofByte(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code classAt} returns the class of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator classAt) {
+        final int[] transitions = this.transitions;
+        int offset = initialOffset;
+        for (int i = 0; i < length; i++) {
+            final int symbolClass = classAt.applyAsInt(i);
+            if (symbolClass < 0) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            offset = transitions[offset + symbolClass];
+            if (offset < 0) {
+                if (!isTerminalOffset(~offset)) {
+                    return StateMachineMetrics.matched(false, i + 1, true);
+                }
+                for (int j = i + 1; j < length; j++) {
+                    if (classAt.applyAsInt(j) < 0) {
+                        return StateMachineMetrics.matched(false, j + 1, true);
+                    }
+                }
+                return StateMachineMetrics.matched(true, length, false);
+            }
+        }
+        return StateMachineMetrics.matched(isTerminalOffset(offset), length, false);
+    }
+
+    public boolean acceptIndices(int[] word, int from, int to) {
+        final int[] transitions = this.transitions;
+        final int size = alphabet.size();
+        int offset = initialOffset;
+        for (int i = from; i < to; i++) {
+            final int index = word[i];
+            if (index < 0 || index >= size) {
+                return StateMachineMetrics.matched(false, i + 1 - from, true);
+            }
+            offset = transitions[offset + classes.ofIndex(index)];
+            if (offset < 0) {
+                if (!isTerminalOffset(~offset)) {
+                    return StateMachineMetrics.matched(false, i + 1 - from, true);
+                }
+                for (int j = i + 1; j < to; j++) {
+                    if (word[j] < 0 || word[j] >= size) {
+                        return StateMachineMetrics.matched(false, j + 1 - from, true);
+                    }
+                }
+                return StateMachineMetrics.matched(true, to - from, false);
+            }
+        }
+        return StateMachineMetrics.matched(isTerminalOffset(offset), to - from, false);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words) {
+        return acceptAll(words, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the set of indices of accepted words. Large batches are split across the pool,
+     * and every thread walks several words at once, so that loads of their transitions overlap.
+     */
+    public BitSet acceptAll(List<? extends CharSequence> words, ForkJoinPool pool) {
+        return BatchMatching.run(words.size(), pool, (from, to, result) -> {
+            final CharSequence[] lanes = new CharSequence[LANES];
+            final int[] indices = new int[LANES];
+            final int[] positions = new int[LANES];
+            final int[] offsets = new int[LANES];
+            int next = from;
+            int busy = 0;
+            while (busy > 0 || next < to) {
+                busy = 0;
+                for (int l = 0; l < LANES; l++) {
+                    if (lanes[l] == null) {
+                        if (next == to) {
+                            continue;
+                        }
+                        indices[l] = next;
+                        lanes[l] = words.get(next++);
+                        positions[l] = 0;
+                        offsets[l] = initialOffset;
+                    }
+                    busy++;
+                    final CharSequence word = lanes[l];
+                    final int position = positions[l];
+                    if (position == word.length()) {
+                        if (StateMachineMetrics.matched(isTerminalOffset(offsets[l]), position, false)) {
+                            result[indices[l] >>> 6] |= 1L << indices[l];
+                        }
+                        lanes[l] = null;
+                        continue;
+                    }
+                    final int symbolClass = classes.ofChar(word.charAt(position));
+                    if (symbolClass < 0) {
+                        StateMachineMetrics.matched(false, position + 1, true);
+                        lanes[l] = null;
+                        continue;
+                    }
+                    final int offset = transitions[offsets[l] + symbolClass];
+                    if (offset < 0) {
+                        final int end = isTerminalOffset(~offset) ? outsideAlphabet(word, position + 1) : position;
+                        final boolean accepted = end == word.length();
+                        if (StateMachineMetrics.matched(accepted, accepted ? end : end + 1, !accepted)) {
+                            result[indices[l] >>> 6] |= 1L << indices[l];
+                        }
+                        lanes[l] = null;
+                        continue;
+                    }
+                    offsets[l] = offset;
+                    positions[l] = position + 1;
+                }
+            }
+        });
+    }
+
+    public BitSet acceptAll(char[][] words) {
+        return acceptAll(words, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as {@link #acceptAll(List, ForkJoinPool)} for words given as char arrays.
+     */
+    public BitSet acceptAll(char[][] words, ForkJoinPool pool) {
+        return BatchMatching.run(words.length, pool, (from, to, result) -> {
+            final char[][] lanes = new char[LANES][];
+            final int[] indices = new int[LANES];
+            final int[] positions = new int[LANES];
+            final int[] offsets = new int[LANES];
+            int next = from;
+            int busy = 0;
+            while (busy > 0 || next < to) {
+                busy = 0;
+                for (int l = 0; l < LANES; l++) {
+                    if (lanes[l] == null) {
+                        if (next == to) {
+                            continue;
+                        }
+                        indices[l] = next;
+                        lanes[l] = words[next++];
+                        positions[l] = 0;
+                        offsets[l] = initialOffset;
+                    }
+                    busy++;
+                    final char[] word = lanes[l];
+                    final int position = positions[l];
+                    if (position == word.length) {
+                        if (StateMachineMetrics.matched(isTerminalOffset(offsets[l]), position, false)) {
+                            result[indices[l] >>> 6] |= 1L << indices[l];
+                        }
+                        lanes[l] = null;
+                        continue;
+                    }
+                    final int symbolClass = classes.ofChar(word[position]);
+                    if (symbolClass < 0) {
+                        StateMachineMetrics.matched(false, position + 1, true);
+                        lanes[l] = null;
+                        continue;
+                    }
+                    final int offset = transitions[offsets[l] + symbolClass];
+                    if (offset < 0) {
+                        final int end = isTerminalOffset(~offset) ? outsideAlphabet(word, position + 1) : position;
+                        final boolean accepted = end == word.length;
+                        if (StateMachineMetrics.matched(accepted, accepted ? end : end + 1, !accepted)) {
+                            result[indices[l] >>> 6] |= 1L << indices[l];
+                        }
+                        lanes[l] = null;
+                        continue;
+                    }
+                    offsets[l] = offset;
+                    positions[l] = position + 1;
+                }
+            }
+        });
+    }
+
+    public boolean acceptParallel(byte[] word, int from, int to, ForkJoinPool pool) {
+        return acceptParallel(ByteBuffer.wrap(word, from, to - from), pool);
+    }
+
+    /**
+     * Runs the machine over the remaining bytes of the buffer, split into chunks matched in parallel,
+     * see {@link SpeculativeMatching}. Pays off on long inputs and small machines.
+     */
+    public boolean acceptParallel(ByteBuffer input, ForkJoinPool pool) {
+        try {
+            return acceptParallel(input, pool, SpeculativeMatching.MIN_CHUNK_SIZE);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Runs the machine over the whole file in parallel, every chunk is mapped to memory by its own task,
+     * so files larger than 2 GB are supported.
+     */
+    public boolean acceptParallel(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return SpeculativeMatching.accept(this, channel.size(),
+                    (from, to) -> channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), pool,
+                    SpeculativeMatching.MIN_CHUNK_SIZE);
+        }
+    }
+
+    boolean acceptParallel(ByteBuffer input, ForkJoinPool pool, int minChunkSize) throws IOException {
+        final ByteBuffer buffer = input.slice();
+        return SpeculativeMatching.accept(this, buffer.limit(), (from, to) -> {
+            final ByteBuffer chunk = buffer.duplicate();
+            chunk.position((int) from).limit((int) to);
+            return chunk.slice();
+        }, pool, minChunkSize);
+    }
+
+    public int getStatesCount() {
+        return statesCount;
+    }
+
+    public int getSymbolClassesCount() {
+        return classes.count();
+    }
+
+    public int getInitialState() {
+        return initialOffset / stride;
+    }
+
+    public boolean isTerminal(int state) {
+        return (terminals[state >>> 6] & (1L << state)) != 0;
+    }
+
+    public boolean isDead(int state) {
+        return (live[state >>> 6] & (1L << state)) == 0;
+    }
+
+    public boolean isAlwaysAccepting(int state) {
+        return (alwaysAccepting[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    public Matcher matcher() {
+        return new DeterministicMatcher();
+    }
+
+    public int getTransition(int state, int symbolIndex) {
+        final int offset = transitions[state * stride + classes.ofIndex(symbolIndex)];
+        return (offset < 0 ? ~offset : offset) / stride;
+    }
+
+    /**
+     * Writes the machine in the binary format which can be matched from a memory-mapped file,
+     * see {@link MappedDeterministicStateMachine#map(Path)}. Only char and byte alphabets are supported.
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        StateMachineFormat.write(this, channel);
+    }
+
+    int[] getTransitions() {
+        return transitions;
+    }
+
+    Alphabet<L> getAlphabet() {
+        return alphabet;
+    }
+
+    SymbolClasses getSymbolClasses() {
+        return classes;
+    }
+
+    /**
+     * Returns the position of the first symbol outside the alphabet, or the length of the word if there is none.
+     */
+    private int outsideAlphabet(CharSequence word, int from) {
+        for (int i = from; i < word.length(); i++) {
+            if (classes.ofChar(word.charAt(i)) < 0) {
+                return i;
+            }
+        }
+        return word.length();
+    }
+
+    private int outsideAlphabet(char[] word, int from) {
+        for (int i = from; i < word.length; i++) {
+            if (classes.ofChar(word[i]) < 0) {
+                return i;
+            }
+        }
+        return word.length;
+    }
+
+    private boolean isTerminalOffset(int offset) {
+        return isTerminal(offset / stride);
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.deterministic(alphabet, statesCount, getInitialState(), this::isTerminal,
+                String::valueOf, this::getTransition), out);
+    }
+
+    private class DeterministicMatcher extends AbstractMatcher {
+        private int offset = initialOffset;
+        private boolean decided;
+        private boolean rejected;
+
+        @Override
+        public void feed(ByteBuffer input) {
+            final int[] transitions = CompiledDeterministicStateMachine.this.transitions;
+            int offset = this.offset;
+            boolean decided = this.decided;
+            while (input.hasRemaining() && !rejected) {
+                final int symbolClass = classes.ofByte(input.get());
+                if (symbolClass < 0 || decided && !isTerminalOffset(offset)) {
+                    rejected = true;
+                } else if (!decided) {
+                    offset = transitions[offset + symbolClass];
+                    if (offset < 0) {
+                        offset = ~offset;
+                        decided = true;
+                    }
+                }
+            }
+            input.position(input.limit());
+            this.offset = offset;
+            this.decided = decided;
+        }
+
+        @Override
+        public void feed(CharBuffer input) {
+            final int[] transitions = CompiledDeterministicStateMachine.this.transitions;
+            int offset = this.offset;
+            boolean decided = this.decided;
+            while (input.hasRemaining() && !rejected) {
+                final int symbolClass = classes.ofChar(input.get());
+                if (symbolClass < 0 || decided && !isTerminalOffset(offset)) {
+                    rejected = true;
+                } else if (!decided) {
+                    offset = transitions[offset + symbolClass];
+                    if (offset < 0) {
+                        offset = ~offset;
+                        decided = true;
+                    }
+                }
+            }
+            input.position(input.limit());
+            this.offset = offset;
+            this.decided = decided;
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return !rejected && isTerminalOffset(offset);
+        }
+
+        @Override
+        public boolean isDead() {
+            return rejected || CompiledDeterministicStateMachine.this.isDead(offset / stride);
+        }
+
+        @Override
+        public void reset() {
+            offset = initialOffset;
+            decided = false;
+            rejected = false;
+        }
+    }
+}
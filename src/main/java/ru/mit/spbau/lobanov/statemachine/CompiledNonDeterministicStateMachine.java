@@ -0,0 +1,366 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Immutable form of {@link NonDeterministicStateMachine}.
+ * Symbols which behave identically in every state share a class, and successors of every
+ * (state, class) pair are kept in one int array (CSR layout),
+ * simulation works on a pair of sparse sets and doesn't allocate per symbol.
+ * Dead states (ones from which no terminal state is reachable) never enter the active set,
+ * so simulation stops as soon as the set becomes empty.
+ */
+public class CompiledNonDeterministicStateMachine<L> implements FrozenStateMachine<L> {
+    private final Alphabet<L> alphabet;
+    private final SymbolClasses classes;
+    private final int statesCount;
+    private final int[] successorsStart;
+    private final int[] successors;
+    private final long[] terminals;
+    private final long[] live;
+    private final int initialState;
+
+    CompiledNonDeterministicStateMachine(Alphabet<L> alphabet, SymbolClasses classes, int statesCount,
+                                         int[] successorsStart, int[] successors, long[] terminals,
+                                         int initialState) {
+        this.alphabet = alphabet;
+        this.classes = classes;
+        this.statesCount = statesCount;
+        this.successorsStart = successorsStart;
+        this.successors = successors;
+        this.terminals = terminals;
+        this.initialState = initialState;
+        final int size = classes.count();
+        final int[] rows = new int[statesCount + 1];
+        for (int state = 0; state <= statesCount; state++) {
+            rows[state] = successorsStart[state * size];
+        }
+        this.live = Reachability.coReachable(statesCount, rows, successors, terminals);
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> classes.ofIndex(alphabet.getIndex(word[i])));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> classes.ofChar(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> classes.ofChar(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> classes.ofByte(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code classAt} returns the class of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator classAt) {
+        final Simulation simulation = new Simulation();
+        for (int i = 0; i < length; i++) {
+            final int index = classAt.applyAsInt(i);
+            if (index < 0) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            simulation.step(index);
+            if (simulation.isEmpty()) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+        }
+        return StateMachineMetrics.matched(simulation.isAccepting(), length, false);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words) {
+        return acceptAll(words, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the set of indices of accepted words. Large batches are split across the pool,
+     * every task reuses one simulation for all of its words.
+     */
+    public BitSet acceptAll(List<? extends CharSequence> words, ForkJoinPool pool) {
+        return BatchMatching.run(words.size(), pool, (from, to, result) -> {
+            final Simulation simulation = new Simulation();
+            for (int i = from; i < to; i++) {
+                final CharSequence word = words.get(i);
+                simulation.reset();
+                int j = 0;
+                for (; j < word.length() && !simulation.isEmpty(); j++) {
+                    final int index = classes.ofChar(word.charAt(j));
+                    if (index < 0) {
+                        simulation.clear();
+                        j++;
+                        break;
+                    }
+                    simulation.step(index);
+                }
+                if (StateMachineMetrics.matched(simulation.isAccepting(), j, simulation.isEmpty())) {
+                    result[i >>> 6] |= 1L << i;
+                }
+            }
+        });
+    }
+
+    public BitSet acceptAll(char[][] words) {
+        return acceptAll(words, ForkJoinPool.commonPool());
+    }
+
+    public BitSet acceptAll(char[][] words, ForkJoinPool pool) {
+        return BatchMatching.run(words.length, pool, (from, to, result) -> {
+            final Simulation simulation = new Simulation();
+            for (int i = from; i < to; i++) {
+                final char[] word = words[i];
+                simulation.reset();
+                int j = 0;
+                for (; j < word.length && !simulation.isEmpty(); j++) {
+                    final int index = classes.ofChar(word[j]);
+                    if (index < 0) {
+                        simulation.clear();
+                        j++;
+                        break;
+                    }
+                    simulation.step(index);
+                }
+                if (StateMachineMetrics.matched(simulation.isAccepting(), j, simulation.isEmpty())) {
+                    result[i >>> 6] |= 1L << i;
+                }
+            }
+        });
+    }
+
+    public LazyDeterministicStateMachine<L> lazy(int cacheSize) {
+        return new LazyDeterministicStateMachine<>(this, cacheSize);
+    }
+
+    /**
+     * Returns the bit-parallel simulation of this machine, see {@link BitParallelNonDeterministicStateMachine}.
+     * Supports machines of up to {@link BitParallelNonDeterministicStateMachine#MAX_STATES_COUNT} states.
+     */
+    public BitParallelNonDeterministicStateMachine<L> bitParallel() {
+        return new BitParallelNonDeterministicStateMachine<>(this);
+    }
+
+    public int getStatesCount() {
+        return statesCount;
+    }
+
+    public int getInitialState() {
+        return initialState;
+    }
+
+    public boolean isTerminal(int state) {
+        return (terminals[state >>> 6] & (1L << state)) != 0;
+    }
+
+    public boolean isDead(int state) {
+        return (live[state >>> 6] & (1L << state)) == 0;
+    }
+
+    @Override
+    public Matcher matcher() {
+        return new NonDeterministicMatcher();
+    }
+
+    public int getSymbolClassesCount() {
+        return classes.count();
+    }
+
+    /**
+     * Writes the machine in the binary format, see {@link #read(Path)}. Only char and byte alphabets are supported.
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        StateMachineFormat.write(this, channel);
+    }
+
+    /**
+     * Reads a machine written by {@link #writeTo(FileChannel)} to the heap. The alphabet of the machine is
+     * a {@link SimpleAlphabet} or a {@link ByteAlphabet}, depending on what the machine was written with.
+     */
+    @SuppressWarnings("unchecked")
+    public static <L> CompiledNonDeterministicStateMachine<L> read(Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (StateMachineFormat.check(buffer) != StateMachineFormat.NFA) {
+            throw new RuntimeException("File doesn't contain a non-deterministic machine");
+        }
+        return (CompiledNonDeterministicStateMachine<L>) StateMachineFormat.readNonDeterministic(buffer);
+    }
+
+    Alphabet<L> getAlphabet() {
+        return alphabet;
+    }
+
+    SymbolClasses getSymbolClasses() {
+        return classes;
+    }
+
+    int successorsStart(int state, int symbolClass) {
+        return successorsStart[state * classes.count() + symbolClass];
+    }
+
+    int successorsEnd(int state, int symbolClass) {
+        return successorsStart[state * classes.count() + symbolClass + 1];
+    }
+
+    int getSuccessorsCount() {
+        return successors.length;
+    }
+
+    int successor(int position) {
+        return successors[position];
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.nonDeterministic(alphabet, statesCount, initialState, this::isTerminal,
+                String::valueOf, (state, symbol, buffer) -> {
+                    final int symbolClass = classes.ofIndex(symbol);
+                    final int from = successorsStart(state, symbolClass);
+                    final int to = successorsEnd(state, symbolClass);
+                    System.arraycopy(successors, from, buffer, 0, to - from);
+                    return to - from;
+                }), out);
+    }
+
+    /**
+     * Set of active states of the machine, stored both as a dense list and as a bit mask.
+     */
+    class Simulation {
+        private int[] active = new int[statesCount];
+        private long[] activeMask = new long[(statesCount + 63) >>> 6];
+        private int activeCount;
+        private int[] next = new int[statesCount];
+        private long[] nextMask = new long[(statesCount + 63) >>> 6];
+        private int nextCount;
+
+        Simulation() {
+            reset();
+        }
+
+        void reset() {
+            clear();
+            add(initialState);
+        }
+
+        void clear() {
+            for (int i = 0; i < activeCount; i++) {
+                activeMask[active[i] >>> 6] = 0;
+            }
+            activeCount = 0;
+        }
+
+        void add(int state) {
+            if ((activeMask[state >>> 6] & (1L << state)) == 0 && (live[state >>> 6] & (1L << state)) != 0) {
+                activeMask[state >>> 6] |= 1L << state;
+                active[activeCount++] = state;
+            }
+        }
+
+        void step(int symbolClass) {
+            final int size = classes.count();
+            for (int i = 0; i < activeCount; i++) {
+                final int key = active[i] * size + symbolClass;
+                for (int j = successorsStart[key]; j < successorsStart[key + 1]; j++) {
+                    final int target = successors[j];
+                    final long bit = 1L << target;
+                    if ((nextMask[target >>> 6] & bit) == 0 && (live[target >>> 6] & bit) != 0) {
+                        nextMask[target >>> 6] |= bit;
+                        next[nextCount++] = target;
+                    }
+                }
+            }
+            clear();
+            final int[] tmp = active;
+            active = next;
+            next = tmp;
+            final long[] tmpMask = activeMask;
+            activeMask = nextMask;
+            nextMask = tmpMask;
+            activeCount = nextCount;
+            nextCount = 0;
+        }
+
+        boolean isAccepting() {
+            for (int i = 0; i < activeCount; i++) {
+                if (isTerminal(active[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return activeCount == 0;
+        }
+
+        int size() {
+            return activeCount;
+        }
+
+        int get(int index) {
+            return active[index];
+        }
+    }
+
+    private class NonDeterministicMatcher extends AbstractMatcher {
+        private final Simulation simulation = new Simulation();
+
+        @Override
+        public void feed(ByteBuffer input) {
+            while (input.hasRemaining()) {
+                final int index = classes.ofByte(input.get());
+                if (index < 0) {
+                    simulation.clear();
+                    input.position(input.limit());
+                    break;
+                }
+                simulation.step(index);
+            }
+        }
+
+        @Override
+        public void feed(CharBuffer input) {
+            while (input.hasRemaining()) {
+                final int index = classes.ofChar(input.get());
+                if (index < 0) {
+                    simulation.clear();
+                    input.position(input.limit());
+                    break;
+                }
+                simulation.step(index);
+            }
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return simulation.isAccepting();
+        }
+
+        @Override
+        public boolean isDead() {
+            return simulation.isEmpty();
+        }
+
+        @Override
+        public void reset() {
+            simulation.reset();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+/**
+ * Receives statistics of constructions while metrics are enabled, see {@link StateMachineMetrics}.
+ * Called on the thread which runs the construction.
+ */
+public interface ConstructionListener {
+    void onConstruction(ConstructionStats stats);
+
+    /**
+     * Called periodically while subsets are being built, so a determinization which blows up
+     * can be noticed and interrupted before it finishes.
+     */
+    default void onProgress(ConstructionStats.Operation operation, int statesCount) {
+    }
+}
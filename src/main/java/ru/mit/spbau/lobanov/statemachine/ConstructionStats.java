@@ -0,0 +1,78 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+/**
+ * Cost of one construction. Input counts are summed over both operands of a product,
+ * allocated bytes are the ones of the calling thread and are -1 if the JVM doesn't track them.
+ */
+public class ConstructionStats {
+    private final Operation operation;
+    private final int inputStatesCount;
+    private final long inputTransitionsCount;
+    private final int statesCount;
+    private final long transitionsCount;
+    private final long nanos;
+    private final long allocatedBytes;
+
+    ConstructionStats(Operation operation, int inputStatesCount, long inputTransitionsCount, int statesCount,
+                      long transitionsCount, long nanos, long allocatedBytes) {
+        this.operation = operation;
+        this.inputStatesCount = inputStatesCount;
+        this.inputTransitionsCount = inputTransitionsCount;
+        this.statesCount = statesCount;
+        this.transitionsCount = transitionsCount;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public int getInputStatesCount() {
+        return inputStatesCount;
+    }
+
+    public long getInputTransitionsCount() {
+        return inputTransitionsCount;
+    }
+
+    public int getStatesCount() {
+        return statesCount;
+    }
+
+    public long getTransitionsCount() {
+        return transitionsCount;
+    }
+
+    /**
+     * Returns the ratio of result states to input states: the subset blow-up of a determinization
+     * or the reduction of a minimization.
+     */
+    public double getGrowth() {
+        return inputStatesCount == 0 ? 0 : (double) statesCount / inputStatesCount;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return operation + ": " + inputStatesCount + " states, " + inputTransitionsCount + " transitions -> "
+                + statesCount + " states, " + transitionsCount + " transitions in " + nanos / 1_000_000 + " ms, "
+                + allocatedBytes + " bytes allocated";
+    }
+
+    public enum Operation {
+        DETERMINE,
+        MINIMIZE,
+        INTERSECTION,
+        UNION,
+        DIFFERENCE,
+        SYMMETRIC_DIFFERENCE
+    }
+}
@@ -0,0 +1,14 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+/**
+ * Straight-line code of one deterministic machine, implemented by classes generated at runtime
+ * (see {@link GeneratedDeterministicStateMachine}); it isn't meant to be implemented by hand.
+ * <p>
+ * Every method runs the machine from {@code state} over {@code word[from, to)}, mapping symbols to classes
+ * through {@code classes}, and returns the state reached, or -1 if the word was rejected before its end.
+ */
+public interface DeterministicRunner {
+    int run(int state, char[] word, int from, int to, int[] classes);
+    int run(int state, byte[] word, int from, int to, int[] classes);
+    int run(int state, CharSequence word, int from, int to, int[] classes);
+}
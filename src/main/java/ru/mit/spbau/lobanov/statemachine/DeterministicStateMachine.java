@@ -1,15 +1,21 @@
 package ru.mit.spbau.lobanov.statemachine;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class DeterministicStateMachine<L> implements StateMachine<L> {
     private final List<State> states = new ArrayList<>();
     private final Alphabet<L> alphabet;
     private State initialState;
+    private CompiledDeterministicStateMachine<L> compiled;
+    private String structuralHash;
 
     public DeterministicStateMachine(Alphabet<L> alphabet) {
         this.alphabet = alphabet;
@@ -17,11 +23,15 @@ public class DeterministicStateMachine<L> implements StateMachine<L> {
 
     public void setInitialState(@NotNull State state) {
         initialState = state;
+        compiled = null;
+        structuralHash = null;
     }
 
     public State addState(boolean isTerminal, @NotNull State defaultEdges, @NotNull String label) {
         final State state = new State(isTerminal, alphabet.size(), states.size(), label);
         states.add(state);
+        compiled = null;
+        structuralHash = null;
         Arrays.fill(state.edges, defaultEdges);
         return state;
     }
@@ -33,150 +43,333 @@ public class DeterministicStateMachine<L> implements StateMachine<L> {
     public State addState(boolean isTerminal, @NotNull String label) {
         final State state = new State(isTerminal, alphabet.size(), states.size(), label);
         states.add(state);
+        compiled = null;
+        structuralHash = null;
         Arrays.fill(state.edges, state);
         return state;
     }
 
     public void setEdge(@NotNull State from, @NotNull L key, @NotNull State to) {
         from.edges[alphabet.getIndex(key)] = to;
+        compiled = null;
+        structuralHash = null;
     }
 
     @Override
     @SafeVarargs
+    @SuppressWarnings("varargs") // the word is only read by the delegate
     public final boolean accept(L... word) {
-        State currentState = initialState;
-        for (L symbol : word) {
-            currentState = currentState.edges[alphabet.getIndex(symbol)];
+        return compiled().accept(word);
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return compiled().accept(word);
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return compiled().accept(word, from, to);
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return compiled().accept(word, from, to);
+    }
+
+    public boolean acceptParallel(byte[] word, int from, int to, ForkJoinPool pool) {
+        return compiled().acceptParallel(word, from, to, pool);
+    }
+
+    public boolean acceptParallel(Path file, ForkJoinPool pool) throws IOException {
+        return compiled().acceptParallel(file, pool);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words) {
+        return compiled().acceptAll(words);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words, ForkJoinPool pool) {
+        return compiled().acceptAll(words, pool);
+    }
+
+    public BitSet acceptAll(char[][] words) {
+        return compiled().acceptAll(words);
+    }
+
+    public BitSet acceptAll(char[][] words, ForkJoinPool pool) {
+        return compiled().acceptAll(words, pool);
+    }
+
+    private CompiledDeterministicStateMachine<L> compiled() {
+        CompiledDeterministicStateMachine<L> result = compiled;
+        if (result == null) {
+            result = compile();
+            compiled = result;
         }
-        return currentState.isTerminal;
+        return result;
     }
 
     @Override
-    public void writeStateMachine(PrintWriter out) {
-        out.println("digraph dsm {");
-        for (State state : states) {
-            out.print("    S" + state.id + " [label=\"" + state.label + "\"]");
-            out.println("[shape=" + (state.isTerminal ? "double":"") + "circle];");
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.deterministic(alphabet, states.size(),
+                initialState == null ? -1 : initialState.id, i -> states.get(i).isTerminal, i -> states.get(i).label,
+                (state, symbol) -> {
+                    final State target = states.get(state).edges[symbol];
+                    return target == null ? -1 : target.id;
+                }), out);
+    }
+
+    public DeterministicStateMachine<L> minimize() {
+        return BuildCache.cached(alphabet, () -> BuildCache.key("minimize", structuralHash()), this::minimized);
+    }
+
+    private DeterministicStateMachine<L> minimized() {
+        final StateMachineMetrics.Construction construction = StateMachineMetrics.start(
+                ConstructionStats.Operation.MINIMIZE, states.size(), (long) states.size() * alphabet.size());
+        final int[] targets = targets();
+        final SymbolClasses symbolClasses = SymbolClasses.forTable(alphabet, states.size(), targets);
+        final int[] classes = HopcroftMinimizer.minimize(states.size(), symbolClasses.count(),
+                symbolClasses.compress(states.size(), targets), terminals(), initialState.id);
+        int statesCount = 0;
+        for (int id : classes) {
+            statesCount = Math.max(statesCount, id + 1);
         }
-        out.println("SPACE [color=white][label=\"\"];");
+        final State[] templates = new State[statesCount];
         for (State state : states) {
-            final Map<State, String> labels = new HashMap<>();
-            for (int s = 0; s < alphabet.size(); s++) {
-                final State target = state.edges[s];
-                final String prefix = labels.containsKey(target) ? labels.get(target) + "," : "";
-                labels.put(target, prefix + alphabet.getSymbol(s));
+            final int id = classes[state.id];
+            if (id != -1 && templates[id] == null) {
+                templates[id] = state;
             }
-            for (Map.Entry<State, String> edge : labels.entrySet()) {
-                out.print("    S" + state.id + " -> ");
-                out.print("S" + edge.getKey().id);
-                final String label = edge.getValue().length() > alphabet.size() ? "?" : edge.getValue();
-                out.println(" [label = \"" + label + "\"];");
+        }
+        final DeterministicStateMachine<L> minDsm = new DeterministicStateMachine<>(alphabet);
+        for (State template : templates) {
+            minDsm.addState(template.isTerminal);
+        }
+        for (State newState : minDsm.states) {
+            final State template = templates[newState.id];
+            for (int s = 0; s < alphabet.size(); s++) {
+                newState.edges[s] = minDsm.states.get(classes[template.edges[s].id]);
             }
         }
-        if (initialState != null) {
-            out.println("SPACE -> S" + initialState.id + ";");
+        minDsm.setInitialState(minDsm.states.get(classes[initialState.id]));
+        StateMachineMetrics.finish(construction, statesCount, (long) statesCount * alphabet.size());
+        return minDsm;
+    }
+
+    public DeterministicStateMachine<L> intersect(DeterministicStateMachine<L> another) {
+        return intersect(another, false);
+    }
+
+    public DeterministicStateMachine<L> intersect(DeterministicStateMachine<L> another, boolean minimize) {
+        return product(another, ProductConstruction.Operation.INTERSECTION, minimize);
+    }
+
+    public DeterministicStateMachine<L> union(DeterministicStateMachine<L> another) {
+        return union(another, false);
+    }
+
+    public DeterministicStateMachine<L> union(DeterministicStateMachine<L> another, boolean minimize) {
+        return product(another, ProductConstruction.Operation.UNION, minimize);
+    }
+
+    public DeterministicStateMachine<L> difference(DeterministicStateMachine<L> another) {
+        return difference(another, false);
+    }
+
+    public DeterministicStateMachine<L> difference(DeterministicStateMachine<L> another, boolean minimize) {
+        return product(another, ProductConstruction.Operation.DIFFERENCE, minimize);
+    }
+
+    public DeterministicStateMachine<L> symmetricDifference(DeterministicStateMachine<L> another) {
+        return symmetricDifference(another, false);
+    }
+
+    public DeterministicStateMachine<L> symmetricDifference(DeterministicStateMachine<L> another, boolean minimize) {
+        return product(another, ProductConstruction.Operation.SYMMETRIC_DIFFERENCE, minimize);
+    }
+
+    private DeterministicStateMachine<L> product(DeterministicStateMachine<L> another,
+                                                 ProductConstruction.Operation operation, boolean minimize) {
+        checkAlphabet(another);
+        return BuildCache.cached(alphabet,
+                () -> BuildCache.key(operation + (minimize ? " minimized" : ""), structuralHash(),
+                        another.structuralHash()),
+                () -> ProductConstruction.build(compiled(), another.compiled(), operation, minimize,
+                        CompactDeterministicStateMachine.Storage.HEAP).toDeterministic());
+    }
+
+    public boolean isEmpty() {
+        final CompiledDeterministicStateMachine<L> compiled = compiled();
+        return compiled.isDead(compiled.getInitialState());
+    }
+
+    public boolean isEquivalent(DeterministicStateMachine<L> another) {
+        checkAlphabet(another);
+        return LanguageChecks.isEquivalent(compiled(), another.compiled());
+    }
+
+    public boolean isSubsetOf(DeterministicStateMachine<L> another) {
+        return findWordNotIn(another) == null;
+    }
+
+    /**
+     * Returns one of the shortest accepted words, or null if the language is empty.
+     */
+    @Nullable
+    public List<L> findShortestWord() {
+        return alphabet.getSymbols(LanguageChecks.shortestWord(compiled()));
+    }
+
+    /**
+     * Returns one of the shortest words accepted by exactly one of the machines, or null if they are equivalent.
+     */
+    @Nullable
+    public List<L> findDistinguishingWord(DeterministicStateMachine<L> another) {
+        if (isEquivalent(another)) {
+            return null;
         }
-        out.println("}");
+        return alphabet.getSymbols(LanguageChecks.distinguishingWord(compiled(), another.compiled()));
     }
 
-    public DeterministicStateMachine<L> minimize() {
-        final boolean[][] areDifferent = new boolean[states.size()][states.size()];
-        final Queue<Pair<Integer>> queue = new ArrayDeque<>();
-        @SuppressWarnings("unchecked")
-        final List<Integer>[][] backEdges = new List[states.size()][alphabet.size()];
-        for (int i = 0; i < states.size(); i++) {
-            for (int s = 0; s < alphabet.size(); s++) {
-                backEdges[i][s] = new ArrayList<>();
-            }
+    /**
+     * Returns one of the shortest words accepted by this machine and rejected by another,
+     * or null if the language of this machine is a subset of the language of another.
+     */
+    @Nullable
+    public List<L> findWordNotIn(DeterministicStateMachine<L> another) {
+        checkAlphabet(another);
+        return alphabet.getSymbols(LanguageChecks.wordNotIn(compiled(), another.compiled()));
+    }
+
+    private void checkAlphabet(DeterministicStateMachine<L> another) {
+        if (!alphabet.isIdentical(another.alphabet)) {
+            throw new RuntimeException("Machines have different alphabets");
         }
-        for (int i = 0; i < states.size(); i++) {
-            final State currentState = states.get(i);
-            for (int s = 0; s < alphabet.size(); s++) {
-                backEdges[currentState.edges[s].id][s].add(i);
+    }
+
+    public CompiledDeterministicStateMachine<L> compile() {
+        if (initialState == null) {
+            throw new RuntimeException("Initial state is not set");
+        }
+        return new CompiledDeterministicStateMachine<>(alphabet, states.size(), targets(), terminals(),
+                initialState.id);
+    }
+
+    /**
+     * Generates straight-line bytecode for this machine, see {@link GeneratedDeterministicStateMachine}.
+     */
+    public GeneratedDeterministicStateMachine<L> generate() {
+        return new GeneratedDeterministicStateMachine<>(compiled());
+    }
+
+    static <L> DeterministicStateMachine<L> fromCompact(CompactDeterministicStateMachine<L> compact) {
+        final DeterministicStateMachine<L> dsm = new DeterministicStateMachine<>(compact.getAlphabet());
+        for (int i = 0; i < compact.getStatesCount(); i++) {
+            dsm.addState(compact.isTerminal(i), compact.getLabel(i));
+        }
+        final int size = dsm.alphabet.size();
+        for (State state : dsm.states) {
+            for (int s = 0; s < size; s++) {
+                state.edges[s] = dsm.states.get(compact.getTransition(state.id, s));
             }
-            for (int j = 0; j < i; j++) {
-                if (currentState.isTerminal ^ states.get(j).isTerminal) {
-                    areDifferent[i][j] = true;
-                    areDifferent[j][i] = true;
-                    queue.add(new Pair<>(i, j));
-                }
+        }
+        dsm.setInitialState(dsm.states.get(compact.getInitialState()));
+        return dsm;
+    }
+
+    static <L> DeterministicStateMachine<L> fromCompiled(Alphabet<L> alphabet,
+                                                         CompiledDeterministicStateMachine<?> compiled) {
+        final DeterministicStateMachine<L> dsm = new DeterministicStateMachine<>(alphabet);
+        for (int i = 0; i < compiled.getStatesCount(); i++) {
+            dsm.addState(compiled.isTerminal(i));
+        }
+        final int size = alphabet.size();
+        for (State state : dsm.states) {
+            for (int s = 0; s < size; s++) {
+                state.edges[s] = dsm.states.get(compiled.getTransition(state.id, s));
             }
         }
-        while (!queue.isEmpty()) {
-            final Pair<Integer> pair = queue.poll();
-            for (int s = 0; s < alphabet.size(); s++) {
-                for (int a : backEdges[pair.first][s]) {
-                    for (int b : backEdges[pair.second][s]) {
-                        if (!areDifferent[a][b]) {
-                            areDifferent[a][b] = true;
-                            areDifferent[b][a] = true;
-                            queue.add(new Pair<>(a, b));
-                        }
-                    }
+        dsm.setInitialState(dsm.states.get(compiled.getInitialState()));
+        return dsm;
+    }
+
+    /**
+     * Returns the SHA-256 of the alphabet, terminal states, edges and initial state of the machine in hex.
+     * Machines with the same hash have the same language and the same numbering of states; labels are ignored.
+     */
+    public String structuralHash() {
+        String result = structuralHash;
+        if (result == null) {
+            final int size = alphabet.size();
+            final StructuralHash hash = new StructuralHash('D', alphabet, states.size(),
+                    initialState == null ? -1 : initialState.id);
+            for (State state : states) {
+                hash.putBoolean(state.isTerminal);
+                for (int s = 0; s < size; s++) {
+                    hash.putInt(state.edges[s] == null ? -1 : state.edges[s].id);
                 }
             }
+            result = hash.finish();
+            structuralHash = result;
         }
-        int[] delegates = new int[states.size()];
-        Arrays.fill(delegates, -1);
-        int statesCount = 0;
-        final DeterministicStateMachine<L> minDsm = new DeterministicStateMachine<>(alphabet);
-        final List<State> newStates = new ArrayList<>();
-        final List<State> templates = new ArrayList<>();
+        return result;
+    }
+
+    /**
+     * Copies the machine into struct-of-arrays form, see {@link CompactDeterministicStateMachine}.
+     */
+    public CompactDeterministicStateMachine<L> compact(CompactDeterministicStateMachine.Storage storage) {
+        if (initialState == null) {
+            throw new RuntimeException("Initial state is not set");
+        }
+        final CompactDeterministicStateMachine<L> compact = new CompactDeterministicStateMachine<>(alphabet, storage);
         for (State state : states) {
-            if (delegates[state.id] != -1) {
-                continue;
+            compact.addState(state.isTerminal);
+            if (!state.label.equals(Integer.toString(state.id))) {
+                compact.setLabel(state.id, state.label);
             }
-            newStates.add(minDsm.addState(state.isTerminal));
-            templates.add(state);
-            for (int i = state.id; i < states.size(); i++) {
-                if (!areDifferent[state.id][i]) {
-                    delegates[i] = statesCount;
-                }
+        }
+        for (State state : states) {
+            for (int s = 0; s < state.edges.length; s++) {
+                compact.setTarget(state.id, s, state.edges[s].id);
             }
-            statesCount++;
         }
+        compact.setInitialState(initialState.id);
+        return compact;
+    }
 
-        for (State newState : newStates) {
-            final State template = templates.get(newState.id);
-            for (int s = 0; s < alphabet.size(); s++) {
-                final int nextID = delegates[template.edges[s].id];
-                minDsm.setEdge(newState, alphabet.getSymbol(s), newStates.get(nextID));
+    private int[] targets() {
+        final int size = alphabet.size();
+        final int[] targets = new int[states.size() * size];
+        for (State state : states) {
+            for (int s = 0; s < size; s++) {
+                targets[state.id * size + s] = state.edges[s].id;
             }
         }
-        final int initialStateId = delegates[initialState.id];
-        minDsm.setInitialState(newStates.get(initialStateId));
-        return minDsm;
+        return targets;
     }
 
-    public DeterministicStateMachine<L> intersect(DeterministicStateMachine<L> another) {
-        if (!alphabet.isIdentical(another.alphabet)) {
-            throw new RuntimeException();
-        }
-        final DeterministicStateMachine<L> result = new DeterministicStateMachine<>(alphabet);
-        final Map<Pair<Integer>, State> newStates = new HashMap<>();
-        final Queue<Pair<Integer>> queue = new ArrayDeque<>();
-        final Pair<Integer> start = new Pair<>(initialState.id, another.initialState.id);
-        newStates.put(start, result.addState(initialState.isTerminal && another.initialState.isTerminal));
-        queue.add(start);
-        while (!queue.isEmpty()) {
-            final Pair<Integer> pair = queue.poll();
-            final State a = states.get(pair.first);
-            final State b = another.states.get(pair.second);
-            final State ab = newStates.get(pair);
-            for (int s = 0; s < alphabet.size(); s++) {
-                final Pair<Integer> next = new Pair<>(a.edges[s].id, b.edges[s].id);
-                if (!newStates.containsKey(next)) {
-                    newStates.put(next, result.addState(a.edges[s].isTerminal && b.edges[s].isTerminal));
-                    queue.add(next);
-                }
-                ab.edges[s] = newStates.get(next);
+    private long[] terminals() {
+        final long[] terminals = new long[(states.size() + 63) >>> 6];
+        for (State state : states) {
+            if (state.isTerminal) {
+                terminals[state.id >>> 6] |= 1L << state.id;
             }
         }
-        result.setInitialState(newStates.get(start));
-        return result;
+        return terminals;
     }
 
     public DeterministicStateMachine<L> invert() {
+        final DeterministicStateMachine<L> dsm = BuildCache.cached(alphabet,
+                () -> BuildCache.key("invert", structuralHash()), this::inverted);
+        for (State state : dsm.states) {
+            state.label = states.get(state.id).label;
+        }
+        return dsm;
+    }
+
+    private DeterministicStateMachine<L> inverted() {
         final DeterministicStateMachine<L> dsm = new DeterministicStateMachine<>(alphabet);
         final State[] dsmStates = new State[states.size()];
         states.forEach(s -> dsmStates[s.id] = dsm.addState(!s.isTerminal, s.label));
@@ -203,28 +396,4 @@ public class DeterministicStateMachine<L> implements StateMachine<L> {
             edges = new State[alphabetSize];
         }
     }
-
-    private static class Pair<T> {
-        private final T first;
-        private final T second;
-
-        private Pair(T first, T second) {
-            this.first = first;
-            this.second = second;
-        }
-
-        @Override
-        public int hashCode() {
-            return first.hashCode() + 1000_000_007 * second.hashCode();
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            Pair<?> pair = (Pair<?>) o;
-            return first.equals(pair.first) && second.equals(pair.second);
-        }
-    }
 }
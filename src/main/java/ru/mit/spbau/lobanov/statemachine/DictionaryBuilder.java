@@ -0,0 +1,467 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the minimal acyclic machine of a set of words up to date while words are added and removed,
+ * so a dictionary never exists as an intermediate trie or subset construction.
+ * <p>
+ * All states except the root and the path of the last changed word are kept in a register of unique states.
+ * A word is inserted along a private path: shared states on its prefix are cloned, the suffix is appended,
+ * and the path is merged back into the register (Carrasco and Forcada) lazily, when the next word diverges from it.
+ * For words sorted by alphabet indices the next word never walks into registered states,
+ * which gives the construction of Daciuk et al. for sorted data.
+ */
+public class DictionaryBuilder<L> {
+    private static final int[] NO_EDGES = new int[0];
+    private static final int ROOT = 0;
+
+    private final Alphabet<L> alphabet;
+    /**
+     * Edges of a state as pairs (symbol index, target) sorted by symbol, null for released states.
+     */
+    private int[][] edges = new int[16][];
+    private boolean[] terminals = new boolean[16];
+    private int[] inDegrees = new int[16];
+    private int[] hashes = new int[16];
+    private int allocated;
+    private int[] released = new int[16];
+    private int releasedCount;
+    private int statesCount;
+    private int wordsCount;
+    private final Register register = new Register();
+    private int[] path = new int[16];
+    private int[] pendingWord = new int[16];
+    private int pendingLength;
+    private int[] buffer = new int[16];
+
+    public DictionaryBuilder(Alphabet<L> alphabet) {
+        this.alphabet = alphabet;
+        newState();
+        path[0] = ROOT;
+    }
+
+    /**
+     * Adds the word and returns false if it is already in the dictionary.
+     */
+    @SafeVarargs
+    public final boolean add(L... word) {
+        final int[] symbols = buffer(word.length);
+        for (int i = 0; i < word.length; i++) {
+            symbols[i] = checkSymbol(alphabet.getIndex(word[i]), word[i]);
+        }
+        return add(symbols, word.length);
+    }
+
+    public boolean add(CharSequence word) {
+        final int[] symbols = buffer(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            symbols[i] = checkSymbol(alphabet.getCharIndex(word.charAt(i)), word.charAt(i));
+        }
+        return add(symbols, word.length());
+    }
+
+    public void addAll(Iterable<? extends CharSequence> words) {
+        for (CharSequence word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * Removes the word and returns false if it isn't in the dictionary.
+     */
+    @SafeVarargs
+    public final boolean remove(L... word) {
+        final int[] symbols = buffer(word.length);
+        for (int i = 0; i < word.length; i++) {
+            symbols[i] = alphabet.getIndex(word[i]);
+        }
+        return remove(symbols, word.length);
+    }
+
+    public boolean remove(CharSequence word) {
+        final int[] symbols = buffer(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            symbols[i] = alphabet.getCharIndex(word.charAt(i));
+        }
+        return remove(symbols, word.length());
+    }
+
+    @SafeVarargs
+    public final boolean contains(L... word) {
+        int state = ROOT;
+        for (int i = 0; i < word.length && state != -1; i++) {
+            state = target(state, alphabet.getIndex(word[i]));
+        }
+        return state != -1 && terminals[state];
+    }
+
+    public boolean contains(CharSequence word) {
+        int state = ROOT;
+        for (int i = 0; i < word.length() && state != -1; i++) {
+            state = target(state, alphabet.getCharIndex(word.charAt(i)));
+        }
+        return state != -1 && terminals[state];
+    }
+
+    public int size() {
+        return wordsCount;
+    }
+
+    /**
+     * Returns the number of states of the minimal machine, including the drain state of a non-empty dictionary.
+     */
+    public int getStatesCount() {
+        flush(0);
+        return wordsCount == 0 ? 1 : statesCount + 1;
+    }
+
+    public DeterministicStateMachine<L> build() {
+        return compact(CompactDeterministicStateMachine.Storage.HEAP).toDeterministic();
+    }
+
+    /**
+     * Copies the minimal machine into struct-of-arrays form, see {@link CompactDeterministicStateMachine}.
+     * State 0 is the drain state, the rest are numbered in breadth-first order from the initial one.
+     */
+    public CompactDeterministicStateMachine<L> compact(CompactDeterministicStateMachine.Storage storage) {
+        flush(0);
+        final CompactDeterministicStateMachine<L> compact = new CompactDeterministicStateMachine<>(alphabet, storage);
+        if (wordsCount == 0) {
+            compact.setInitialState(compact.addState(false));
+            return compact;
+        }
+        final int[] numbers = new int[allocated];
+        Arrays.fill(numbers, -1);
+        final int[] order = new int[statesCount];
+        order[0] = ROOT;
+        numbers[ROOT] = 0;
+        int count = 1;
+        for (int head = 0; head < count; head++) {
+            final int[] stateEdges = edges[order[head]];
+            for (int i = 1; i < stateEdges.length; i += 2) {
+                if (numbers[stateEdges[i]] == -1) {
+                    numbers[stateEdges[i]] = count;
+                    order[count++] = stateEdges[i];
+                }
+            }
+        }
+        final int drain = compact.addState(false);
+        for (int i = 0; i < count; i++) {
+            compact.addState(terminals[order[i]], drain);
+        }
+        for (int i = 0; i < count; i++) {
+            final int[] stateEdges = edges[order[i]];
+            for (int j = 0; j < stateEdges.length; j += 2) {
+                compact.setTarget(i + 1, stateEdges[j], numbers[stateEdges[j + 1]] + 1);
+            }
+        }
+        compact.setInitialState(1);
+        return compact;
+    }
+
+    private boolean add(int[] word, int length) {
+        final int common = commonPrefix(word, length);
+        flush(common);
+        final int reached = walk(word, common, length);
+        if (reached == length && terminals[path[length]]) {
+            return false;
+        }
+        detach(word, common, reached);
+        ensurePath(length);
+        for (int i = reached; i < length; i++) {
+            final int state = newState();
+            insertEdge(path[i], word[i], state);
+            path[i + 1] = state;
+        }
+        terminals[path[length]] = true;
+        setPending(word, length);
+        wordsCount++;
+        return true;
+    }
+
+    private boolean remove(int[] word, int length) {
+        for (int i = 0; i < length; i++) {
+            if (word[i] < 0) {
+                return false;
+            }
+        }
+        final int common = commonPrefix(word, length);
+        flush(common);
+        final int reached = walk(word, common, length);
+        if (reached < length || !terminals[path[length]]) {
+            return false;
+        }
+        detach(word, common, length);
+        terminals[path[length]] = false;
+        setPending(word, length);
+        wordsCount--;
+        return true;
+    }
+
+    private int commonPrefix(int[] word, int length) {
+        final int limit = Math.min(length, pendingLength);
+        int common = 0;
+        while (common < limit && word[common] == pendingWord[common]) {
+            common++;
+        }
+        return common;
+    }
+
+    /**
+     * Follows the word from the end of the pending prefix and returns the length of the walked part.
+     */
+    private int walk(int[] word, int from, int length) {
+        ensurePath(length);
+        int i = from;
+        while (i < length) {
+            final int next = target(path[i], word[i]);
+            if (next == -1) {
+                break;
+            }
+            path[i + 1] = next;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Makes states of the path after {@code from} up to {@code to} private, so they can be changed:
+     * states used only by this path leave the register, shared ones are replaced by copies.
+     */
+    private void detach(int[] word, int from, int to) {
+        int i = from + 1;
+        while (i <= to && inDegrees[path[i]] == 1) {
+            register.remove(path[i]);
+            i++;
+        }
+        for (; i <= to; i++) {
+            final int copy = newState();
+            terminals[copy] = terminals[path[i]];
+            edges[copy] = edges[path[i]].clone();
+            for (int j = 1; j < edges[copy].length; j += 2) {
+                inDegrees[edges[copy][j]]++;
+            }
+            redirect(path[i - 1], word[i - 1], copy);
+            path[i] = copy;
+        }
+    }
+
+    private void setPending(int[] word, int length) {
+        if (pendingWord.length < length) {
+            pendingWord = Arrays.copyOf(pendingWord, Math.max(length, pendingWord.length * 2));
+        }
+        System.arraycopy(word, 0, pendingWord, 0, length);
+        pendingLength = length;
+    }
+
+    /**
+     * Merges states of the pending path deeper than {@code depth} into the register, bottom up.
+     */
+    private void flush(int depth) {
+        for (int i = pendingLength; i > depth; i--) {
+            final int parent = path[i - 1];
+            final int state = path[i];
+            final int symbol = pendingWord[i - 1];
+            if (!terminals[state] && edges[state].length == 0) {
+                removeEdge(parent, symbol);
+                release(state);
+                continue;
+            }
+            final int existing = register.putIfAbsent(state);
+            if (existing != state) {
+                redirect(parent, symbol, existing);
+                release(state);
+            }
+        }
+        pendingLength = Math.min(pendingLength, depth);
+    }
+
+    private int target(int state, int symbol) {
+        final int[] stateEdges = edges[state];
+        for (int i = 0; i < stateEdges.length && stateEdges[i] <= symbol; i += 2) {
+            if (stateEdges[i] == symbol) {
+                return stateEdges[i + 1];
+            }
+        }
+        return -1;
+    }
+
+    private void insertEdge(int state, int symbol, int target) {
+        final int[] stateEdges = edges[state];
+        int position = 0;
+        while (position < stateEdges.length && stateEdges[position] < symbol) {
+            position += 2;
+        }
+        final int[] updated = new int[stateEdges.length + 2];
+        System.arraycopy(stateEdges, 0, updated, 0, position);
+        System.arraycopy(stateEdges, position, updated, position + 2, stateEdges.length - position);
+        updated[position] = symbol;
+        updated[position + 1] = target;
+        edges[state] = updated;
+        inDegrees[target]++;
+    }
+
+    private void removeEdge(int state, int symbol) {
+        final int[] stateEdges = edges[state];
+        int position = 0;
+        while (stateEdges[position] != symbol) {
+            position += 2;
+        }
+        final int[] updated = stateEdges.length == 2 ? NO_EDGES : new int[stateEdges.length - 2];
+        System.arraycopy(stateEdges, 0, updated, 0, position);
+        System.arraycopy(stateEdges, position + 2, updated, position, stateEdges.length - position - 2);
+        edges[state] = updated;
+        inDegrees[stateEdges[position + 1]]--;
+    }
+
+    private void redirect(int state, int symbol, int target) {
+        final int[] stateEdges = edges[state];
+        int position = 0;
+        while (stateEdges[position] != symbol) {
+            position += 2;
+        }
+        inDegrees[stateEdges[position + 1]]--;
+        stateEdges[position + 1] = target;
+        inDegrees[target]++;
+    }
+
+    private int newState() {
+        final int state;
+        if (releasedCount > 0) {
+            state = released[--releasedCount];
+        } else {
+            if (allocated == edges.length) {
+                final int capacity = allocated * 2;
+                edges = Arrays.copyOf(edges, capacity);
+                terminals = Arrays.copyOf(terminals, capacity);
+                inDegrees = Arrays.copyOf(inDegrees, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            state = allocated++;
+        }
+        edges[state] = NO_EDGES;
+        terminals[state] = false;
+        inDegrees[state] = 0;
+        statesCount++;
+        return state;
+    }
+
+    private void release(int state) {
+        final int[] stateEdges = edges[state];
+        for (int i = 1; i < stateEdges.length; i += 2) {
+            inDegrees[stateEdges[i]]--;
+        }
+        edges[state] = null;
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, releasedCount * 2);
+        }
+        released[releasedCount++] = state;
+        statesCount--;
+    }
+
+    private void ensurePath(int length) {
+        if (path.length <= length) {
+            path = Arrays.copyOf(path, Math.max(length + 1, path.length * 2));
+        }
+    }
+
+    private int[] buffer(int length) {
+        if (buffer.length < length) {
+            buffer = new int[Math.max(length, buffer.length * 2)];
+        }
+        return buffer;
+    }
+
+    private static int checkSymbol(int index, @NotNull Object symbol) {
+        if (index < 0) {
+            throw new RuntimeException("Symbol " + symbol + " is not in the alphabet");
+        }
+        return index;
+    }
+
+    /**
+     * Open addressing set of states with linear probing, states are equal if they have equal
+     * terminal flags and edges. A registered state is never changed, so its hash is computed once.
+     */
+    private class Register {
+        private int[] table = new int[16];
+        private int mask = 15;
+        private int size;
+
+        Register() {
+            Arrays.fill(table, -1);
+        }
+
+        /**
+         * Returns the registered state equal to the given one, or registers the given one and returns it.
+         */
+        int putIfAbsent(int state) {
+            final int hash = hash(state);
+            int i = hash & mask;
+            while (table[i] != -1) {
+                if (hashes[table[i]] == hash && equal(table[i], state)) {
+                    return table[i];
+                }
+                i = (i + 1) & mask;
+            }
+            hashes[state] = hash;
+            table[i] = state;
+            if (++size * 2 > table.length) {
+                grow();
+            }
+            return state;
+        }
+
+        void remove(int state) {
+            int i = hashes[state] & mask;
+            while (table[i] != state) {
+                if (table[i] == -1) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = -1;
+            size--;
+            for (int j = (i + 1) & mask; table[j] != -1; j = (j + 1) & mask) {
+                final int home = hashes[table[j]] & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    table[i] = table[j];
+                    table[j] = -1;
+                    i = j;
+                }
+            }
+        }
+
+        private void grow() {
+            final int[] old = table;
+            table = new int[old.length * 2];
+            mask = table.length - 1;
+            Arrays.fill(table, -1);
+            for (int state : old) {
+                if (state != -1) {
+                    int i = hashes[state] & mask;
+                    while (table[i] != -1) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = state;
+                }
+            }
+        }
+
+        private int hash(int state) {
+            int hash = terminals[state] ? 1 : 0;
+            for (int value : edges[state]) {
+                hash = hash * 31 + value;
+            }
+            final int mixed = hash * 0x9E3779B9;
+            return mixed ^ (mixed >>> 16);
+        }
+
+        private boolean equal(int a, int b) {
+            return terminals[a] == terminals[b] && Arrays.equals(edges[a], edges[b]);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Results kept as files of a local directory in the format of {@link CompiledDeterministicStateMachine#writeTo},
+ * one file per key. Files are written to a temporary file and then moved in place, so concurrent processes
+ * never see a partial file. The cache is best-effort: failed writes, machines over alphabets which can't be
+ * serialized and damaged files are treated as misses.
+ */
+public class DiskResultCache implements ResultCache {
+    private static final String SUFFIX = ".smat";
+
+    private final Path directory;
+
+    public DiskResultCache(@NotNull Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Nullable
+    @Override
+    public CompiledDeterministicStateMachine<?> get(@NotNull String key) {
+        final Path path = directory.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            return load(MappedDeterministicStateMachine.map(path, true));
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            delete(path);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(@NotNull String key, @NotNull CompiledDeterministicStateMachine<?> machine) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                machine.writeTo(channel);
+            }
+            Files.move(temporary, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (temporary != null) {
+                delete(temporary);
+            }
+        }
+    }
+
+    private static <L> CompiledDeterministicStateMachine<L> load(MappedDeterministicStateMachine<L> mapped) {
+        final int statesCount = mapped.getStatesCount();
+        final int size = mapped.getAlphabet().size();
+        final int[] targets = new int[statesCount * size];
+        final long[] terminals = new long[(statesCount + 63) >>> 6];
+        for (int state = 0; state < statesCount; state++) {
+            for (int s = 0; s < size; s++) {
+                targets[state * size + s] = mapped.getTransition(state, s);
+            }
+            if (mapped.isTerminal(state)) {
+                terminals[state >>> 6] |= 1L << state;
+            }
+        }
+        return new CompiledDeterministicStateMachine<>(mapped.getAlphabet(), statesCount, targets, terminals,
+                mapped.getInitialState());
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // removed by another process or will be overwritten by the next put
+        }
+    }
+}
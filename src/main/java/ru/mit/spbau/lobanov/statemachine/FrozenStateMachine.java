@@ -0,0 +1,10 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+/**
+ * Immutable machine: all of its state is set in the constructor and never changes, so an instance
+ * is safe to publish through a data race and to match from any number of threads without locking.
+ * Matchers are not shared, every thread should take its own.
+ */
+public interface FrozenStateMachine<L> extends StateMachine<L> {
+    Matcher matcher();
+}
@@ -0,0 +1,115 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Deterministic machine whose transitions are compiled to bytecode of a class generated at runtime,
+ * so the JIT can inline and branch-predict the whole machine. Intended for small hot machines:
+ * generation fails if the code of the machine doesn't fit into a method HotSpot is willing to compile.
+ */
+public class GeneratedDeterministicStateMachine<L> implements FrozenStateMachine<L> {
+    private static final int CHUNK_SIZE = 4096;
+
+    private final CompiledDeterministicStateMachine<L> compiled;
+    private final DeterministicRunner runner;
+    private final int[] charClasses;
+    private final int[] byteClasses;
+
+    GeneratedDeterministicStateMachine(CompiledDeterministicStateMachine<L> compiled) {
+        this.compiled = compiled;
+        this.runner = RunnerGenerator.generate(compiled);
+        this.charClasses = compiled.getSymbolClasses().charClasses();
+        this.byteClasses = compiled.getSymbolClasses().byteClasses();
+    }
+
+    @Override
+    @SafeVarargs
+    @SuppressWarnings("varargs") // the word is only read by the delegate
+    public final boolean accept(L... word) {
+        return compiled.accept(word);
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return matched(runner.run(compiled.getInitialState(), word, 0, word.length(), charClasses), word.length());
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return matched(runner.run(compiled.getInitialState(), word, from, to, charClasses), to - from);
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return matched(runner.run(compiled.getInitialState(), word, from, to, byteClasses), to - from);
+    }
+
+    @Override
+    public Matcher matcher() {
+        return new GeneratedMatcher();
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        compiled.writeStateMachine(out, writer);
+    }
+
+    private boolean isAccepting(int state) {
+        return state >= 0 && compiled.isTerminal(state);
+    }
+
+    /**
+     * Records the match in metrics; the runner doesn't report where a word was rejected, so the whole word is counted.
+     */
+    private boolean matched(int state, int length) {
+        return StateMachineMetrics.matched(isAccepting(state), length, state < 0);
+    }
+
+    private class GeneratedMatcher extends AbstractMatcher {
+        private int state = compiled.getInitialState();
+        private byte[] chunk;
+
+        @Override
+        public void feed(ByteBuffer input) {
+            if (state >= 0 && input.hasArray()) {
+                final int from = input.arrayOffset() + input.position();
+                state = runner.run(state, input.array(), from, from + input.remaining(), byteClasses);
+            } else if (state >= 0) {
+                if (chunk == null) {
+                    chunk = new byte[CHUNK_SIZE];
+                }
+                while (state >= 0 && input.hasRemaining()) {
+                    final int length = Math.min(chunk.length, input.remaining());
+                    input.get(chunk, 0, length);
+                    state = runner.run(state, chunk, 0, length, byteClasses);
+                }
+            }
+            input.position(input.limit());
+        }
+
+        @Override
+        public void feed(CharBuffer input) {
+            if (state >= 0) {
+                state = runner.run(state, input, 0, input.remaining(), charClasses);
+            }
+            input.position(input.limit());
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return GeneratedDeterministicStateMachine.this.isAccepting(state);
+        }
+
+        @Override
+        public boolean isDead() {
+            return state < 0 || compiled.isDead(state);
+        }
+
+        @Override
+        public void reset() {
+            state = compiled.getInitialState();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+
+/**
+ * Hopcroft's partition refinement over a flat transition table ({@code targets[state * alphabetSize + symbol]}).
+ * Runs in O(n * k * log n) time and O(n * k) memory, everything is kept in int arrays.
+ */
+final class HopcroftMinimizer {
+    private HopcroftMinimizer() {
+    }
+
+    /**
+     * Returns the class of every state: classes are numbered in BFS order from the initial state
+     * (symbols visited in alphabet order), so equivalent machines get identical numbering.
+     * Unreachable states get class -1.
+     */
+    static int[] minimize(int statesCount, int alphabetSize, int[] targets, long[] terminals, int initialState) {
+        // renumber reachable states
+        final int[] local = new int[statesCount];
+        Arrays.fill(local, -1);
+        final int[] global = new int[statesCount];
+        int size = 0;
+        local[initialState] = size;
+        global[size++] = initialState;
+        for (int head = 0; head < size; head++) {
+            final int row = global[head] * alphabetSize;
+            for (int s = 0; s < alphabetSize; s++) {
+                final int target = targets[row + s];
+                if (local[target] == -1) {
+                    local[target] = size;
+                    global[size++] = target;
+                }
+            }
+        }
+
+        // inverse transitions, grouped by (symbol, target)
+        final int[] inverseStart = new int[alphabetSize * size + 1];
+        for (int q = 0; q < size; q++) {
+            final int row = global[q] * alphabetSize;
+            for (int s = 0; s < alphabetSize; s++) {
+                inverseStart[s * size + local[targets[row + s]] + 1]++;
+            }
+        }
+        for (int i = 1; i < inverseStart.length; i++) {
+            inverseStart[i] += inverseStart[i - 1];
+        }
+        final int[] inverse = new int[alphabetSize * size];
+        final int[] filled = Arrays.copyOf(inverseStart, inverseStart.length - 1);
+        for (int q = 0; q < size; q++) {
+            final int row = global[q] * alphabetSize;
+            for (int s = 0; s < alphabetSize; s++) {
+                inverse[filled[s * size + local[targets[row + s]]]++] = q;
+            }
+        }
+
+        // partition: blocks are contiguous ranges of elements
+        final int[] elements = new int[size];
+        final int[] location = new int[size];
+        final int[] blockOf = new int[size];
+        final int[] blockStart = new int[size];
+        final int[] blockEnd = new int[size];
+        final int[] marked = new int[size];
+        final boolean[] waiting = new boolean[size];
+        final int[] worklist = new int[size];
+        final int[] touched = new int[size];
+        final int[] splitter = new int[size];
+        int blocksCount = 0;
+        int worklistSize = 0;
+
+        int terminalsCount = 0;
+        for (int q = 0; q < size; q++) {
+            if (isTerminal(terminals, global[q])) {
+                terminalsCount++;
+            }
+        }
+        int nextTerminal = 0;
+        int nextOther = terminalsCount;
+        for (int q = 0; q < size; q++) {
+            final int position = isTerminal(terminals, global[q]) ? nextTerminal++ : nextOther++;
+            elements[position] = q;
+            location[q] = position;
+        }
+        if (terminalsCount > 0) {
+            blockStart[blocksCount] = 0;
+            blockEnd[blocksCount] = terminalsCount;
+            blocksCount++;
+        }
+        if (terminalsCount < size) {
+            blockStart[blocksCount] = terminalsCount;
+            blockEnd[blocksCount] = size;
+            blocksCount++;
+        }
+        for (int b = 0; b < blocksCount; b++) {
+            for (int i = blockStart[b]; i < blockEnd[b]; i++) {
+                blockOf[elements[i]] = b;
+            }
+            waiting[b] = true;
+            worklist[worklistSize++] = b;
+        }
+
+        while (worklistSize > 0) {
+            final int current = worklist[--worklistSize];
+            waiting[current] = false;
+            final int splitterSize = blockEnd[current] - blockStart[current];
+            System.arraycopy(elements, blockStart[current], splitter, 0, splitterSize);
+            for (int s = 0; s < alphabetSize; s++) {
+                int touchedCount = 0;
+                for (int i = 0; i < splitterSize; i++) {
+                    final int key = s * size + splitter[i];
+                    for (int j = inverseStart[key]; j < inverseStart[key + 1]; j++) {
+                        final int p = inverse[j];
+                        final int b = blockOf[p];
+                        final int firstUnmarked = blockStart[b] + marked[b];
+                        if (location[p] < firstUnmarked) {
+                            continue;
+                        }
+                        if (marked[b] == 0) {
+                            touched[touchedCount++] = b;
+                        }
+                        final int other = elements[firstUnmarked];
+                        elements[firstUnmarked] = p;
+                        elements[location[p]] = other;
+                        location[other] = location[p];
+                        location[p] = firstUnmarked;
+                        marked[b]++;
+                    }
+                }
+                for (int i = 0; i < touchedCount; i++) {
+                    final int b = touched[i];
+                    final int markedCount = marked[b];
+                    marked[b] = 0;
+                    if (markedCount == blockEnd[b] - blockStart[b]) {
+                        continue;
+                    }
+                    final int created = blocksCount++;
+                    blockStart[created] = blockStart[b];
+                    blockEnd[created] = blockStart[b] + markedCount;
+                    blockStart[b] = blockEnd[created];
+                    for (int j = blockStart[created]; j < blockEnd[created]; j++) {
+                        blockOf[elements[j]] = created;
+                    }
+                    final int smaller = markedCount <= blockEnd[b] - blockStart[b] ? created : b;
+                    final int added = waiting[b] ? created : smaller;
+                    waiting[added] = true;
+                    worklist[worklistSize++] = added;
+                }
+            }
+        }
+
+        // canonical numbering of blocks
+        final int[] blockId = new int[blocksCount];
+        Arrays.fill(blockId, -1);
+        final int[] order = new int[blocksCount];
+        int ordered = 0;
+        blockId[blockOf[0]] = ordered;
+        order[ordered++] = blockOf[0];
+        for (int head = 0; head < ordered; head++) {
+            final int row = global[elements[blockStart[order[head]]]] * alphabetSize;
+            for (int s = 0; s < alphabetSize; s++) {
+                final int b = blockOf[local[targets[row + s]]];
+                if (blockId[b] == -1) {
+                    blockId[b] = ordered;
+                    order[ordered++] = b;
+                }
+            }
+        }
+        final int[] classes = new int[statesCount];
+        for (int state = 0; state < statesCount; state++) {
+            classes[state] = local[state] == -1 ? -1 : blockId[blockOf[local[state]]];
+        }
+        return classes;
+    }
+
+    private static boolean isTerminal(long[] terminals, int state) {
+        return (terminals[state >>> 6] & (1L << state)) != 0;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable array of ints addressed by long indices. Values are kept in fixed-size chunks,
+ * so growing never copies existing values and the size is not limited by the maximum array length.
+ */
+abstract class IntStorage {
+    static final int CHUNK_BITS = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long capacity;
+
+    static IntStorage heap() {
+        return new Heap();
+    }
+
+    static IntStorage direct() {
+        return new Direct();
+    }
+
+    abstract int get(long index);
+
+    abstract void set(long index, int value);
+
+    abstract IntStorage empty();
+
+    abstract void addChunk();
+
+    void ensureCapacity(long size) {
+        while (capacity < size) {
+            addChunk();
+            capacity += CHUNK_SIZE;
+        }
+    }
+
+    void fill(long from, long to, int value) {
+        for (long i = from; i < to; i++) {
+            set(i, value);
+        }
+    }
+
+    IntStorage copy(long size) {
+        final IntStorage copy = empty();
+        copy.ensureCapacity(size);
+        for (long i = 0; i < size; i++) {
+            copy.set(i, get(i));
+        }
+        return copy;
+    }
+
+    private static class Heap extends IntStorage {
+        private int[][] chunks = new int[0][];
+        private int count;
+
+        @Override
+        int get(long index) {
+            return chunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK];
+        }
+
+        @Override
+        void set(long index, int value) {
+            chunks[(int) (index >>> CHUNK_BITS)][(int) index & CHUNK_MASK] = value;
+        }
+
+        @Override
+        IntStorage empty() {
+            return new Heap();
+        }
+
+        @Override
+        void addChunk() {
+            if (count == chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(1, count * 2));
+            }
+            chunks[count++] = new int[CHUNK_SIZE];
+        }
+    }
+
+    private static class Direct extends IntStorage {
+        private IntBuffer[] chunks = new IntBuffer[0];
+        private int count;
+
+        @Override
+        int get(long index) {
+            return chunks[(int) (index >>> CHUNK_BITS)].get((int) index & CHUNK_MASK);
+        }
+
+        @Override
+        void set(long index, int value) {
+            chunks[(int) (index >>> CHUNK_BITS)].put((int) index & CHUNK_MASK, value);
+        }
+
+        @Override
+        IntStorage empty() {
+            return new Direct();
+        }
+
+        @Override
+        void addChunk() {
+            if (count == chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(1, count * 2));
+            }
+            chunks[count++] = ByteBuffer.allocateDirect(CHUNK_SIZE * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emptiness, inclusion and equivalence checks which don't build product machines.
+ * Words are returned as arrays of symbol indices, {@code null} means that there is no such word.
+ * All searches are breadth-first, so returned words are the shortest ones.
+ */
+final class LanguageChecks {
+    private LanguageChecks() {
+    }
+
+    /**
+     * Hopcroft-Karp check: states of both machines are merged by union-find as the pairs are visited,
+     * so every state is visited at most once, and the check stops at the first pair of states
+     * which disagree on acceptance.
+     */
+    static boolean isEquivalent(CompiledDeterministicStateMachine<?> first, CompiledDeterministicStateMachine<?> second) {
+        final SymbolClasses classes = SymbolClasses.join(first.getAlphabet(), first.getSymbolClasses(),
+                second.getSymbolClasses());
+        final int offset = first.getStatesCount();
+        final int[] parent = new int[offset + second.getStatesCount()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        int[] queue = new int[32];
+        int size = 0;
+        union(parent, first.getInitialState(), offset + second.getInitialState());
+        queue[size++] = first.getInitialState();
+        queue[size++] = second.getInitialState();
+        for (int head = 0; head < size; head += 2) {
+            final int a = queue[head];
+            final int b = queue[head + 1];
+            if (first.isTerminal(a) != second.isTerminal(b)) {
+                return false;
+            }
+            for (int c = 0; c < classes.count(); c++) {
+                final int symbol = classes.representative(c);
+                final int nextA = first.getTransition(a, symbol);
+                final int nextB = second.getTransition(b, symbol);
+                if (union(parent, nextA, offset + nextB)) {
+                    if (size + 2 > queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[size++] = nextA;
+                    queue[size++] = nextB;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shortest word accepted by exactly one of the machines.
+     */
+    static int[] distinguishingWord(CompiledDeterministicStateMachine<?> first,
+                                    CompiledDeterministicStateMachine<?> second) {
+        return pairSearch(first, second, false);
+    }
+
+    /**
+     * Returns the shortest word accepted by the first machine and rejected by the second one.
+     */
+    static int[] wordNotIn(CompiledDeterministicStateMachine<?> first, CompiledDeterministicStateMachine<?> second) {
+        return pairSearch(first, second, true);
+    }
+
+    static int[] shortestWord(CompiledDeterministicStateMachine<?> machine) {
+        final int initial = machine.getInitialState();
+        if (machine.isDead(initial)) {
+            return null;
+        }
+        final SymbolClasses classes = machine.getSymbolClasses();
+        final int[] parent = new int[machine.getStatesCount()];
+        final int[] symbols = new int[machine.getStatesCount()];
+        Arrays.fill(parent, -1);
+        final int[] queue = new int[machine.getStatesCount()];
+        int count = 0;
+        queue[count++] = initial;
+        parent[initial] = initial;
+        for (int head = 0; head < count; head++) {
+            final int state = queue[head];
+            if (machine.isTerminal(state)) {
+                final List<Integer> word = new ArrayList<>();
+                for (int q = state; q != initial; q = parent[q]) {
+                    word.add(symbols[q]);
+                }
+                return reversed(word);
+            }
+            for (int c = 0; c < classes.count(); c++) {
+                final int symbol = classes.representative(c);
+                final int target = machine.getTransition(state, symbol);
+                if (parent[target] == -1 && !machine.isDead(target)) {
+                    parent[target] = state;
+                    symbols[target] = symbol;
+                    queue[count++] = target;
+                }
+            }
+        }
+        return null;
+    }
+
+    static int[] shortestWord(CompiledNonDeterministicStateMachine<?> machine) {
+        final int initial = machine.getInitialState();
+        if (machine.isDead(initial)) {
+            return null;
+        }
+        final SymbolClasses classes = machine.getSymbolClasses();
+        final int[] parent = new int[machine.getStatesCount()];
+        final int[] symbols = new int[machine.getStatesCount()];
+        Arrays.fill(parent, -1);
+        final int[] queue = new int[machine.getStatesCount()];
+        int count = 0;
+        queue[count++] = initial;
+        parent[initial] = initial;
+        for (int head = 0; head < count; head++) {
+            final int state = queue[head];
+            if (machine.isTerminal(state)) {
+                final List<Integer> word = new ArrayList<>();
+                for (int q = state; q != initial; q = parent[q]) {
+                    word.add(symbols[q]);
+                }
+                return reversed(word);
+            }
+            for (int c = 0; c < classes.count(); c++) {
+                for (int i = machine.successorsStart(state, c); i < machine.successorsEnd(state, c); i++) {
+                    final int target = machine.successor(i);
+                    if (parent[target] == -1 && !machine.isDead(target)) {
+                        parent[target] = state;
+                        symbols[target] = classes.representative(c);
+                        queue[count++] = target;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shortest word accepted by the first machine and rejected by the second one.
+     * <p>
+     * Explores pairs (state of the first machine, set of states of the second one) and keeps only an antichain
+     * of them: a pair is dropped if a pair with the same state and a subset of its set was already visited,
+     * because every word rejected from the larger set is rejected from the smaller one as well.
+     */
+    static int[] wordNotIn(CompiledNonDeterministicStateMachine<?> first,
+                           CompiledNonDeterministicStateMachine<?> second) {
+        final SymbolClasses classes = SymbolClasses.join(first.getAlphabet(), first.getSymbolClasses(),
+                second.getSymbolClasses());
+        final SymbolClasses firstClasses = first.getSymbolClasses();
+        final SymbolClasses secondClasses = second.getSymbolClasses();
+        final List<int[]>[] antichains = newAntichains(first.getStatesCount());
+        final List<Node> nodes = new ArrayList<>();
+        if (first.isDead(first.getInitialState())) {
+            return null;
+        }
+        final int[] initialSet = second.isDead(second.getInitialState())
+                ? new int[0] : new int[]{second.getInitialState()};
+        nodes.add(new Node(first.getInitialState(), initialSet, -1, -1));
+        antichains[first.getInitialState()].add(initialSet);
+        final long[] mask = new long[(second.getStatesCount() + 63) >>> 6];
+        final int[] buffer = new int[second.getStatesCount()];
+        for (int head = 0; head < nodes.size(); head++) {
+            final Node node = nodes.get(head);
+            if (first.isTerminal(node.state) && !containsTerminal(second, node.set)) {
+                final List<Integer> word = new ArrayList<>();
+                for (Node n = node; n.parent != -1; n = nodes.get(n.parent)) {
+                    word.add(n.symbol);
+                }
+                return reversed(word);
+            }
+            for (int c = 0; c < classes.count(); c++) {
+                final int symbol = classes.representative(c);
+                final int firstClass = firstClasses.ofIndex(symbol);
+                final int secondClass = secondClasses.ofIndex(symbol);
+                int count = 0;
+                for (int q : node.set) {
+                    for (int i = second.successorsStart(q, secondClass); i < second.successorsEnd(q, secondClass); i++) {
+                        final int target = second.successor(i);
+                        if ((mask[target >>> 6] & (1L << target)) == 0 && !second.isDead(target)) {
+                            mask[target >>> 6] |= 1L << target;
+                            buffer[count++] = target;
+                        }
+                    }
+                }
+                final int[] set = Arrays.copyOf(buffer, count);
+                for (int q : set) {
+                    mask[q >>> 6] = 0;
+                }
+                Arrays.sort(set);
+                for (int i = first.successorsStart(node.state, firstClass);
+                     i < first.successorsEnd(node.state, firstClass); i++) {
+                    final int target = first.successor(i);
+                    if (!first.isDead(target) && insert(antichains[target], set)) {
+                        nodes.add(new Node(target, set, head, symbol));
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] pairSearch(CompiledDeterministicStateMachine<?> first,
+                                    CompiledDeterministicStateMachine<?> second, boolean inclusion) {
+        final SymbolClasses classes = SymbolClasses.join(first.getAlphabet(), first.getSymbolClasses(),
+                second.getSymbolClasses());
+        final LongIntHashMap visited = new LongIntHashMap(first.getStatesCount() + second.getStatesCount());
+        int[] pairs = new int[32];
+        int[] parents = new int[16];
+        int[] symbols = new int[16];
+        int count = 0;
+        visited.putIfAbsent(key(first.getInitialState(), second.getInitialState()), 0);
+        pairs[0] = first.getInitialState();
+        pairs[1] = second.getInitialState();
+        parents[0] = -1;
+        count++;
+        for (int head = 0; head < count; head++) {
+            final int a = pairs[2 * head];
+            final int b = pairs[2 * head + 1];
+            final boolean inFirst = first.isTerminal(a);
+            final boolean inSecond = second.isTerminal(b);
+            if (inclusion ? inFirst && !inSecond : inFirst != inSecond) {
+                final List<Integer> word = new ArrayList<>();
+                for (int node = head; parents[node] != -1; node = parents[node]) {
+                    word.add(symbols[node]);
+                }
+                return reversed(word);
+            }
+            final boolean hopeless = inclusion
+                    ? first.isDead(a) || second.isAlwaysAccepting(b)
+                    : first.isDead(a) && second.isDead(b) || first.isAlwaysAccepting(a) && second.isAlwaysAccepting(b);
+            if (hopeless) {
+                continue;
+            }
+            for (int c = 0; c < classes.count(); c++) {
+                final int symbol = classes.representative(c);
+                final int nextA = first.getTransition(a, symbol);
+                final int nextB = second.getTransition(b, symbol);
+                if (visited.putIfAbsent(key(nextA, nextB), count) == -1) {
+                    if (count == parents.length) {
+                        parents = Arrays.copyOf(parents, count * 2);
+                        symbols = Arrays.copyOf(symbols, count * 2);
+                        pairs = Arrays.copyOf(pairs, count * 4);
+                    }
+                    pairs[2 * count] = nextA;
+                    pairs[2 * count + 1] = nextB;
+                    parents[count] = head;
+                    symbols[count] = symbol;
+                    count++;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static boolean union(int[] parent, int a, int b) {
+        final int x = find(parent, a);
+        final int y = find(parent, b);
+        if (x == y) {
+            return false;
+        }
+        parent[x] = y;
+        return true;
+    }
+
+    private static boolean containsTerminal(CompiledNonDeterministicStateMachine<?> machine, int[] set) {
+        for (int q : set) {
+            if (machine.isTerminal(q)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<int[]>[] newAntichains(int size) {
+        final List<int[]>[] antichains = (List<int[]>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            antichains[i] = new ArrayList<>();
+        }
+        return antichains;
+    }
+
+    /**
+     * Adds the set to the antichain unless some subset of it is already there; supersets of the set are removed.
+     */
+    private static boolean insert(List<int[]> antichain, int[] set) {
+        for (int[] known : antichain) {
+            if (isSubset(known, set)) {
+                return false;
+            }
+        }
+        antichain.removeIf(known -> isSubset(set, known));
+        antichain.add(set);
+        return true;
+    }
+
+    private static boolean isSubset(int[] small, int[] large) {
+        if (small.length > large.length) {
+            return false;
+        }
+        int j = 0;
+        for (int q : small) {
+            while (j < large.length && large[j] < q) {
+                j++;
+            }
+            if (j == large.length || large[j] != q) {
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+    private static int[] reversed(List<Integer> word) {
+        final int[] result = new int[word.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = word.get(result.length - 1 - i);
+        }
+        return result;
+    }
+
+    private static class Node {
+        private final int state;
+        private final int[] set;
+        private final int parent;
+        private final int symbol;
+
+        private Node(int state, int[] set, int parent, int symbol) {
+            this.state = state;
+            this.set = set;
+            this.parent = parent;
+            this.symbol = symbol;
+        }
+    }
+}
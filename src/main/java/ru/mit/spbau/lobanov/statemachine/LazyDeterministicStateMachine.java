@@ -0,0 +1,261 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Deterministic machine which builds subset states of a non-deterministic machine
+ * only when input reaches them. At most {@code cacheSize} subset states are kept;
+ * when the cache is full it is flushed as a whole, and if flushes happen too often
+ * the current word is finished by plain simulation of the non-deterministic machine.
+ * Dead states of the non-deterministic machine are dropped from subsets, and the run stops
+ * as soon as the subset becomes empty.
+ * <p>
+ * Instances aren't thread-safe: the cache is mutated by every call of {@code accept}.
+ */
+public class LazyDeterministicStateMachine<L> implements StateMachine<L> {
+    private static final int UNKNOWN = -1;
+    private static final int FALLBACK = -1;
+    private static final int SYMBOLS_PER_STATE_BETWEEN_FLUSHES = 10;
+    private static final int BAD_FLUSHES_BEFORE_FALLBACK = 2;
+
+    private final CompiledNonDeterministicStateMachine<L> nsm;
+    private final SymbolClasses classes;
+    private final int classesCount;
+    private final int cacheSize;
+    private final Map<Subset, Integer> ids = new HashMap<>();
+    private final Subset[] subsets;
+    private final Subset initialSubset;
+    private final int[] transitions;
+    private final boolean[] terminals;
+    private final boolean[] empty;
+    private final long[] mask;
+    private final int[] buffer;
+    private int statesCount;
+    private int initialState;
+    private long symbolsSinceFlush;
+    private int badFlushes;
+
+    private long hits;
+    private long misses;
+    private long flushes;
+    private long fallbacks;
+
+    LazyDeterministicStateMachine(CompiledNonDeterministicStateMachine<L> nsm, int cacheSize) {
+        if (cacheSize < 2) {
+            throw new RuntimeException("Cache should contain at least two states");
+        }
+        this.nsm = nsm;
+        this.classes = nsm.getSymbolClasses();
+        this.classesCount = classes.count();
+        this.cacheSize = cacheSize;
+        subsets = new Subset[cacheSize];
+        transitions = new int[cacheSize * classesCount];
+        terminals = new boolean[cacheSize];
+        empty = new boolean[cacheSize];
+        mask = new long[(nsm.getStatesCount() + 63) >>> 6];
+        buffer = new int[nsm.getStatesCount()];
+        final int initial = nsm.getInitialState();
+        initialSubset = new Subset(nsm.isDead(initial) ? new int[0] : new int[]{initial});
+        flush();
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> classes.ofIndex(nsm.getAlphabet().getIndex(word[i])));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> classes.ofChar(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> classes.ofChar(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> classes.ofByte(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code classAt} returns the class of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator classAt) {
+        int state = initialState;
+        for (int i = 0; i < length; i++) {
+            final int index = classAt.applyAsInt(i);
+            if (index < 0) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            final int next = step(state, index);
+            if (next == FALLBACK) {
+                final CompiledNonDeterministicStateMachine<L>.Simulation simulation = fallback(state, index);
+                for (int j = i + 1; j < length; j++) {
+                    final int symbol = classAt.applyAsInt(j);
+                    if (symbol < 0) {
+                        return StateMachineMetrics.matched(false, j + 1, true);
+                    }
+                    simulation.step(symbol);
+                }
+                return StateMachineMetrics.matched(simulation.isAccepting(), length, false);
+            }
+            if (empty[next]) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            state = next;
+        }
+        return StateMachineMetrics.matched(terminals[state], length, false);
+    }
+
+    public long getCacheHits() {
+        return hits;
+    }
+
+    public long getCacheMisses() {
+        return misses;
+    }
+
+    public long getCacheFlushes() {
+        return flushes;
+    }
+
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    public int getCachedStatesCount() {
+        return statesCount;
+    }
+
+    /**
+     * Returns the next cached state, or {@link #FALLBACK} if the cache thrashes and the caller
+     * should continue with plain simulation. In the latter case {@code state} remains valid.
+     */
+    private int step(int state, int symbolClass) {
+        symbolsSinceFlush++;
+        final int next = transitions[state * classesCount + symbolClass];
+        if (next != UNKNOWN) {
+            if ((++hits & (StateMachineMetrics.LAZY_HITS_BATCH - 1)) == 0) {
+                StateMachineMetrics.lazyCacheHits(StateMachineMetrics.LAZY_HITS_BATCH);
+            }
+            return next;
+        }
+        misses++;
+        StateMachineMetrics.lazyCacheMiss();
+        final Subset target = successors(subsets[state], symbolClass);
+        final Integer known = ids.get(target);
+        if (known != null) {
+            transitions[state * classesCount + symbolClass] = known;
+            return known;
+        }
+        if (statesCount == cacheSize) {
+            if (symbolsSinceFlush < (long) SYMBOLS_PER_STATE_BETWEEN_FLUSHES * cacheSize) {
+                badFlushes++;
+            } else {
+                badFlushes = 0;
+            }
+            if (badFlushes >= BAD_FLUSHES_BEFORE_FALLBACK) {
+                badFlushes = 0;
+                fallbacks++;
+                return FALLBACK;
+            }
+            flushes++;
+            flush();
+            // the current state was dropped with the cache, but the target doesn't depend on it anymore;
+            // the flush kept only the initial subset, and the target isn't it, as it wasn't found above
+        }
+        return register(target);
+    }
+
+    private CompiledNonDeterministicStateMachine<L>.Simulation fallback(int state, int symbolClass) {
+        final CompiledNonDeterministicStateMachine<L>.Simulation simulation = nsm.new Simulation();
+        simulation.clear();
+        for (int q : subsets[state].states) {
+            simulation.add(q);
+        }
+        simulation.step(symbolClass);
+        return simulation;
+    }
+
+    /**
+     * Drops all cached states and registers the kept initial subset again, so the initial state is never duplicated.
+     */
+    private void flush() {
+        ids.clear();
+        Arrays.fill(subsets, 0, statesCount, null);
+        Arrays.fill(transitions, 0, statesCount * classesCount, UNKNOWN);
+        statesCount = 0;
+        symbolsSinceFlush = 0;
+        initialState = register(initialSubset);
+    }
+
+    private int register(Subset subset) {
+        final int id = statesCount++;
+        subsets[id] = subset;
+        Arrays.fill(transitions, id * classesCount, (id + 1) * classesCount, UNKNOWN);
+        boolean isTerminal = false;
+        for (int q : subset.states) {
+            isTerminal |= nsm.isTerminal(q);
+        }
+        terminals[id] = isTerminal;
+        empty[id] = subset.states.length == 0;
+        ids.put(subset, id);
+        return id;
+    }
+
+    private Subset successors(Subset subset, int symbolClass) {
+        int count = 0;
+        for (int q : subset.states) {
+            for (int i = nsm.successorsStart(q, symbolClass); i < nsm.successorsEnd(q, symbolClass); i++) {
+                final int target = nsm.successor(i);
+                if ((mask[target >>> 6] & (1L << target)) == 0 && !nsm.isDead(target)) {
+                    mask[target >>> 6] |= 1L << target;
+                    buffer[count++] = target;
+                }
+            }
+        }
+        final int[] states = Arrays.copyOf(buffer, count);
+        for (int q : states) {
+            mask[q >>> 6] = 0;
+        }
+        Arrays.sort(states);
+        return new Subset(states);
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        nsm.writeStateMachine(out, writer);
+    }
+
+    private static class Subset {
+        private final int[] states;
+        private final int hash;
+
+        private Subset(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Subset subset = (Subset) o;
+            return hash == subset.hash && Arrays.equals(states, subset.states);
+        }
+    }
+}
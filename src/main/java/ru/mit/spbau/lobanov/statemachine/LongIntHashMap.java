@@ -0,0 +1,89 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from long keys to non-negative int values with linear probing.
+ * Keys and values are kept in primitive arrays, so lookups and insertions don't allocate.
+ */
+final class LongIntHashMap {
+    private static final int NO_VALUE = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of the key, or -1 if there is no such key.
+     */
+    int get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == NO_VALUE || keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the key if it's present, otherwise stores the given value and returns -1.
+     */
+    int putIfAbsent(long key, int value) {
+        if (value < 0) {
+            throw new RuntimeException("Values should be non-negative");
+        }
+        int i = slot(key);
+        while (values[i] != NO_VALUE) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return NO_VALUE;
+    }
+
+    private int slot(long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != NO_VALUE) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != NO_VALUE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Deterministic machine matched directly from a memory-mapped file written by
+ * {@link CompiledDeterministicStateMachine#writeTo(FileChannel)}. Transitions and bitmaps stay in the mapping,
+ * only the alphabet and the symbol class tables are loaded to the heap, so processes which map the same file
+ * share its pages.
+ */
+public class MappedDeterministicStateMachine<L> implements FrozenStateMachine<L> {
+    private final Alphabet<L> alphabet;
+    private final SymbolClasses classes;
+    private final ByteBuffer buffer;
+    private final int statesCount;
+    private final int stride;
+    private final int initialOffset;
+    private final int terminalsOffset;
+    private final int liveOffset;
+    private final int alwaysAcceptingOffset;
+    private final int transitionsOffset;
+
+    private MappedDeterministicStateMachine(Alphabet<L> alphabet, ByteBuffer buffer) {
+        this.alphabet = alphabet;
+        this.classes = StateMachineFormat.readClasses(buffer, alphabet);
+        this.buffer = buffer;
+        this.statesCount = StateMachineFormat.statesCount(buffer);
+        this.stride = Math.max(classes.count(), 1);
+        this.initialOffset = StateMachineFormat.initialState(buffer) * stride;
+        final int words = (statesCount + 63) >>> 6;
+        terminalsOffset = StateMachineFormat.bodyOffset(alphabet);
+        liveOffset = terminalsOffset + words * 8;
+        alwaysAcceptingOffset = liveOffset + words * 8;
+        transitionsOffset = alwaysAcceptingOffset + words * 8;
+    }
+
+    /**
+     * Maps the file and checks its header and size, without reading the tables, see {@link #map(Path, boolean)}.
+     */
+    public static <L> MappedDeterministicStateMachine<L> map(Path path) throws IOException {
+        return map(path, false);
+    }
+
+    /**
+     * Maps the file; if {@code verify} is set, the checksum of the whole file is checked, which reads every page.
+     * The alphabet of the machine is a {@link SimpleAlphabet} or a {@link ByteAlphabet},
+     * depending on what the machine was written with.
+     */
+    @SuppressWarnings("unchecked")
+    public static <L> MappedDeterministicStateMachine<L> map(Path path, boolean verify) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int kind = verify ? StateMachineFormat.check(buffer) : StateMachineFormat.checkHeader(buffer);
+        if (kind != StateMachineFormat.DFA) {
+            throw new RuntimeException("File doesn't contain a deterministic machine");
+        }
+        final Alphabet<L> alphabet = (Alphabet<L>) StateMachineFormat.readAlphabet(buffer);
+        if (buffer.limit() != StateMachineFormat.deterministicSize(alphabet, StateMachineFormat.statesCount(buffer),
+                StateMachineFormat.classesCount(buffer))) {
+            throw new RuntimeException("State machine file is corrupted: unexpected size");
+        }
+        return new MappedDeterministicStateMachine<>(alphabet, buffer);
+    }
+
+    @Override
+    @SafeVarargs
+    public final boolean accept(L... word) {
+        return run(word.length, i -> classes.ofIndex(alphabet.getIndex(word[i])));
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return run(word.length(), i -> classes.ofChar(word.charAt(i)));
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return run(to - from, i -> classes.ofChar(word[from + i]));
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return run(to - from, i -> classes.ofByte(word[from + i]));
+    }
+
+    /**
+     * Runs the machine over a word of the given length, {@code classAt} returns the class of the i-th symbol
+     * of the word or a negative value for symbols outside the alphabet.
+     */
+    private boolean run(int length, IntUnaryOperator classAt) {
+        int offset = initialOffset;
+        for (int i = 0; i < length; i++) {
+            final int symbolClass = classAt.applyAsInt(i);
+            if (symbolClass < 0) {
+                return StateMachineMetrics.matched(false, i + 1, true);
+            }
+            offset = transition(offset, symbolClass);
+            if (offset < 0) {
+                if (!isTerminalOffset(~offset)) {
+                    return StateMachineMetrics.matched(false, i + 1, true);
+                }
+                for (int j = i + 1; j < length; j++) {
+                    if (classAt.applyAsInt(j) < 0) {
+                        return StateMachineMetrics.matched(false, j + 1, true);
+                    }
+                }
+                return StateMachineMetrics.matched(true, length, false);
+            }
+        }
+        return StateMachineMetrics.matched(isTerminalOffset(offset), length, false);
+    }
+
+    public int getStatesCount() {
+        return statesCount;
+    }
+
+    public int getInitialState() {
+        return initialOffset / stride;
+    }
+
+    public boolean isTerminal(int state) {
+        return bit(terminalsOffset, state);
+    }
+
+    public boolean isDead(int state) {
+        return !bit(liveOffset, state);
+    }
+
+    public boolean isAlwaysAccepting(int state) {
+        return bit(alwaysAcceptingOffset, state);
+    }
+
+    public int getTransition(int state, int symbolIndex) {
+        final int offset = transition(state * stride, classes.ofIndex(symbolIndex));
+        return (offset < 0 ? ~offset : offset) / stride;
+    }
+
+    @Override
+    public Matcher matcher() {
+        return new MappedMatcher();
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.deterministic(alphabet, statesCount, getInitialState(), this::isTerminal,
+                String::valueOf, this::getTransition), out);
+    }
+
+    private int transition(int offset, int symbolClass) {
+        return buffer.getInt(transitionsOffset + ((offset + symbolClass) << 2));
+    }
+
+    Alphabet<L> getAlphabet() {
+        return alphabet;
+    }
+
+    private boolean isTerminalOffset(int offset) {
+        return isTerminal(offset / stride);
+    }
+
+    private boolean bit(int bitmapOffset, int state) {
+        return (buffer.getLong(bitmapOffset + ((state >>> 6) << 3)) & (1L << state)) != 0;
+    }
+
+    private class MappedMatcher extends AbstractMatcher {
+        private int offset = initialOffset;
+        private boolean decided;
+        private boolean rejected;
+
+        @Override
+        public void feed(ByteBuffer input) {
+            while (input.hasRemaining() && !rejected) {
+                final int symbolClass = classes.ofByte(input.get());
+                if (symbolClass < 0 || decided && !isTerminalOffset(offset)) {
+                    rejected = true;
+                } else if (!decided) {
+                    offset = transition(offset, symbolClass);
+                    if (offset < 0) {
+                        offset = ~offset;
+                        decided = true;
+                    }
+                }
+            }
+            input.position(input.limit());
+        }
+
+        @Override
+        public void feed(CharBuffer input) {
+            while (input.hasRemaining() && !rejected) {
+                final int symbolClass = classes.ofChar(input.get());
+                if (symbolClass < 0 || decided && !isTerminalOffset(offset)) {
+                    rejected = true;
+                } else if (!decided) {
+                    offset = transition(offset, symbolClass);
+                    if (offset < 0) {
+                        offset = ~offset;
+                        decided = true;
+                    }
+                }
+            }
+            input.position(input.limit());
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return !rejected && isTerminalOffset(offset);
+        }
+
+        @Override
+        public boolean isDead() {
+            return rejected || MappedDeterministicStateMachine.this.isDead(offset / stride);
+        }
+
+        @Override
+        public void reset() {
+            offset = initialOffset;
+            decided = false;
+            rejected = false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Resumable cursor over a compiled machine. Input may be fed in any number of chunks,
+ * only the current state is kept between them.
+ * <p>
+ * Buffers are matched in place. File channels are mapped to memory, other channels and readers are read
+ * into one buffer of the matcher, or into the caller's buffer, so no input is copied twice.
+ * Reading stops once the matcher is dead.
+ */
+public interface Matcher {
+    void feed(ByteBuffer input);
+    void feed(CharBuffer input);
+    void feed(ReadableByteChannel input) throws IOException;
+    void feed(ReadableByteChannel input, ByteBuffer buffer) throws IOException;
+    void feed(Reader input) throws IOException;
+    void feed(Reader input, CharBuffer buffer) throws IOException;
+    boolean isAccepting();
+    boolean isDead();
+    void reset();
+}
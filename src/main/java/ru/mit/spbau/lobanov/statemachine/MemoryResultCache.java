@@ -0,0 +1,68 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used results kept in memory. If a next level is given, misses are looked up there
+ * and the found results are kept; every put is written through to the next level.
+ */
+public class MemoryResultCache implements ResultCache {
+    private final Map<String, CompiledDeterministicStateMachine<?>> entries;
+    @Nullable
+    private final ResultCache next;
+
+    public MemoryResultCache(int capacity) {
+        this(capacity, null);
+    }
+
+    public MemoryResultCache(int capacity, @Nullable ResultCache next) {
+        if (capacity <= 0) {
+            throw new RuntimeException("Capacity should be positive: " + capacity);
+        }
+        this.next = next;
+        entries = new LinkedHashMap<String, CompiledDeterministicStateMachine<?>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledDeterministicStateMachine<?>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public CompiledDeterministicStateMachine<?> get(@NotNull String key) {
+        synchronized (entries) {
+            final CompiledDeterministicStateMachine<?> machine = entries.get(key);
+            if (machine != null || next == null) {
+                return machine;
+            }
+        }
+        final CompiledDeterministicStateMachine<?> machine = next.get(key);
+        if (machine != null) {
+            synchronized (entries) {
+                entries.put(key, machine);
+            }
+        }
+        return machine;
+    }
+
+    @Override
+    public void put(@NotNull String key, @NotNull CompiledDeterministicStateMachine<?> machine) {
+        synchronized (entries) {
+            entries.put(key, machine);
+        }
+        if (next != null) {
+            next.put(key, machine);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
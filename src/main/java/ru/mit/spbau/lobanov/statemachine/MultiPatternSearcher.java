@@ -0,0 +1,369 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds occurrences of several patterns in a text in one pass.
+ * <p>
+ * States of all pattern machines are merged into one table, and the searcher runs a set of
+ * threads (state, start position) over it: a new thread is started at every position where the
+ * first symbol can lead to a match, threads die on dead states, and threads which reach the same
+ * state are merged keeping the leftmost start. For keyword patterns this gives Aho-Corasick semantics.
+ * <p>
+ * In {@link Mode#OVERLAPPING} mode every (end, pattern) occurrence is reported once with its leftmost start,
+ * even if several states of a non-minimal pattern machine are reached.
+ * In {@link Mode#LEFTMOST_LONGEST} mode non-overlapping matches are reported: the leftmost one,
+ * the longest among them, ties broken by the smallest pattern id. Only the symbols of a pending
+ * match are buffered, so both modes can be used on unbounded streams.
+ * <p>
+ * Patterns are compiled deterministic machines; a non-deterministic pattern is passed as
+ * {@code determine().compile()}.
+ */
+public class MultiPatternSearcher<L> {
+    private static final int PROCESSING_BLOCK = 4096;
+
+    private final Alphabet<L> alphabet;
+    private final Mode mode;
+    private final int alphabetSize;
+    private final int[] next;
+    private final boolean[] terminals;
+    private final boolean[] dead;
+    private final int[] patternOf;
+    private final int patternsCount;
+    private final int statesCount;
+    private final int[][] seeds;
+    private final int[] emptyPatterns;
+
+    public MultiPatternSearcher(List<CompiledDeterministicStateMachine<L>> patterns, Mode mode) {
+        if (patterns.isEmpty()) {
+            throw new RuntimeException("No patterns given");
+        }
+        this.alphabet = patterns.get(0).getAlphabet();
+        this.mode = mode;
+        this.alphabetSize = alphabet.size();
+        int total = 0;
+        for (CompiledDeterministicStateMachine<L> pattern : patterns) {
+            if (!alphabet.isIdentical(pattern.getAlphabet())) {
+                throw new RuntimeException("Patterns have different alphabets");
+            }
+            total += pattern.getStatesCount();
+        }
+        statesCount = total;
+        patternsCount = patterns.size();
+        next = new int[total * alphabetSize];
+        terminals = new boolean[total];
+        dead = new boolean[total];
+        patternOf = new int[total];
+        final int[] initials = new int[patterns.size()];
+        final List<Integer> empty = new ArrayList<>();
+        int base = 0;
+        for (int p = 0; p < patterns.size(); p++) {
+            final CompiledDeterministicStateMachine<L> pattern = patterns.get(p);
+            for (int q = 0; q < pattern.getStatesCount(); q++) {
+                for (int s = 0; s < alphabetSize; s++) {
+                    next[(base + q) * alphabetSize + s] = base + pattern.getTransition(q, s);
+                }
+                terminals[base + q] = pattern.isTerminal(q);
+                dead[base + q] = pattern.isDead(q);
+                patternOf[base + q] = p;
+            }
+            initials[p] = base + pattern.getInitialState();
+            if (pattern.isTerminal(pattern.getInitialState())) {
+                empty.add(p);
+            }
+            base += pattern.getStatesCount();
+        }
+        emptyPatterns = empty.stream().mapToInt(Integer::intValue).toArray();
+        seeds = new int[alphabetSize][];
+        final int[] buffer = new int[patterns.size()];
+        for (int s = 0; s < alphabetSize; s++) {
+            int count = 0;
+            for (int initial : initials) {
+                final int target = next[initial * alphabetSize + s];
+                if (!dead[target]) {
+                    buffer[count++] = target;
+                }
+            }
+            seeds[s] = Arrays.copyOf(buffer, count);
+        }
+    }
+
+    public List<Match> findAll(CharSequence text) {
+        final List<Match> matches = new ArrayList<>();
+        final Cursor cursor = cursor((start, end, patternId) -> matches.add(new Match(start, end, patternId)));
+        cursor.feed(text);
+        cursor.finish();
+        return matches;
+    }
+
+    public Cursor cursor(MatchListener listener) {
+        return new Cursor(listener);
+    }
+
+    public enum Mode {
+        OVERLAPPING,
+        LEFTMOST_LONGEST
+    }
+
+    public interface MatchListener {
+        void onMatch(long start, long end, int patternId);
+    }
+
+    public static class Match {
+        private final long start;
+        private final long end;
+        private final int patternId;
+
+        public Match(long start, long end, int patternId) {
+            this.start = start;
+            this.end = end;
+            this.patternId = patternId;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public int getPatternId() {
+            return patternId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Match match = (Match) o;
+            return start == match.start && end == match.end && patternId == match.patternId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Long.hashCode(start) + Long.hashCode(end)) + patternId;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ") #" + patternId;
+        }
+    }
+
+    /**
+     * Streaming search over a text fed in chunks. {@link #finish()} must be called after the last chunk.
+     */
+    public class Cursor {
+        private final MatchListener listener;
+        private int[] activeStates = new int[statesCount];
+        private long[] activeStarts = new long[statesCount];
+        private int activeCount;
+        private int[] nextStates = new int[statesCount];
+        private long[] nextStarts = new long[statesCount];
+        private final int[] seenAt = new int[statesCount];
+        private int epoch;
+        private final long[] reportedEnd = new long[patternsCount];
+
+        private int[] buffer = new int[64];
+        private long bufferStart;
+        private int bufferLength;
+        private long position;
+
+        private boolean hasBest;
+        private long bestStart;
+        private long bestEnd;
+        private int bestPattern;
+        private long lastEmptyMatch = -1;
+
+        private Cursor(MatchListener listener) {
+            this.listener = listener;
+            Arrays.fill(reportedEnd, -1);
+        }
+
+        public void feed(CharSequence chunk) {
+            for (int i = 0; i < chunk.length(); i++) {
+                append(alphabet.getCharIndex(chunk.charAt(i)));
+            }
+            process();
+        }
+
+        public void feed(CharBuffer chunk) {
+            while (chunk.hasRemaining()) {
+                append(alphabet.getCharIndex(chunk.get()));
+            }
+            process();
+        }
+
+        public void feed(byte[] chunk, int from, int to) {
+            for (int i = from; i < to; i++) {
+                append(alphabet.getByteIndex(chunk[i]));
+            }
+            process();
+        }
+
+        public void finish() {
+            while (true) {
+                seedEmpty();
+                if (!hasBest) {
+                    break;
+                }
+                activeCount = 0;
+                emitBest();
+                process();
+            }
+            activeCount = 0;
+            bufferStart += bufferLength;
+            bufferLength = 0;
+        }
+
+        private void append(int symbol) {
+            if (bufferLength == PROCESSING_BLOCK) {
+                process();
+            }
+            if (bufferLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[bufferLength++] = symbol;
+        }
+
+        private void process() {
+            final long end = bufferStart + bufferLength;
+            while (position < end) {
+                seedEmpty();
+                step(buffer[(int) (position - bufferStart)]);
+                position++;
+                collect();
+                if (hasBest && activeCount == 0) {
+                    emitBest();
+                }
+            }
+            long keepFrom = position;
+            if (activeCount > 0) {
+                keepFrom = Math.min(keepFrom, activeStarts[0]);
+            }
+            if (hasBest) {
+                keepFrom = Math.min(keepFrom, bestStart);
+            }
+            final int dropped = (int) (keepFrom - bufferStart);
+            if (dropped > 0) {
+                System.arraycopy(buffer, dropped, buffer, 0, bufferLength - dropped);
+                bufferLength -= dropped;
+                bufferStart = keepFrom;
+            }
+        }
+
+        private boolean canSeed() {
+            return !hasBest || bestStart == position;
+        }
+
+        private void seedEmpty() {
+            if (emptyPatterns.length == 0 || !canSeed() || position == lastEmptyMatch) {
+                return;
+            }
+            if (mode == Mode.OVERLAPPING) {
+                for (int p : emptyPatterns) {
+                    report(position, p);
+                }
+            } else if (!hasBest) {
+                hasBest = true;
+                bestStart = position;
+                bestEnd = position;
+                bestPattern = emptyPatterns[0];
+            }
+        }
+
+        private void step(int symbol) {
+            if (++epoch == 0) {
+                Arrays.fill(seenAt, 0);
+                epoch = 1;
+            }
+            int count = 0;
+            if (symbol >= 0) {
+                for (int i = 0; i < activeCount; i++) {
+                    final int target = next[activeStates[i] * alphabetSize + symbol];
+                    if (!dead[target] && seenAt[target] != epoch) {
+                        seenAt[target] = epoch;
+                        nextStates[count] = target;
+                        nextStarts[count++] = activeStarts[i];
+                    }
+                }
+                if (canSeed()) {
+                    for (int target : seeds[symbol]) {
+                        if (seenAt[target] != epoch) {
+                            seenAt[target] = epoch;
+                            nextStates[count] = target;
+                            nextStarts[count++] = position;
+                        }
+                    }
+                }
+            }
+            final int[] states = activeStates;
+            activeStates = nextStates;
+            nextStates = states;
+            final long[] starts = activeStarts;
+            activeStarts = nextStarts;
+            nextStarts = starts;
+            activeCount = count;
+        }
+
+        private void collect() {
+            if (mode == Mode.OVERLAPPING) {
+                for (int i = 0; i < activeCount; i++) {
+                    if (terminals[activeStates[i]]) {
+                        report(activeStarts[i], patternOf[activeStates[i]]);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < activeCount; i++) {
+                final int state = activeStates[i];
+                if (!terminals[state]) {
+                    continue;
+                }
+                final long start = activeStarts[i];
+                if (!hasBest || start < bestStart || start == bestStart && position > bestEnd
+                        || start == bestStart && position == bestEnd && patternOf[state] < bestPattern) {
+                    hasBest = true;
+                    bestStart = start;
+                    bestEnd = position;
+                    bestPattern = patternOf[state];
+                }
+            }
+            if (hasBest) {
+                int count = 0;
+                for (int i = 0; i < activeCount; i++) {
+                    if (activeStarts[i] <= bestStart) {
+                        activeStates[count] = activeStates[i];
+                        activeStarts[count++] = activeStarts[i];
+                    }
+                }
+                activeCount = count;
+            }
+        }
+
+        /**
+         * Reports an overlapping match ending at the current position, unless the pattern already matched here.
+         * Threads are kept ordered by start, so the first report has the leftmost start.
+         */
+        private void report(long start, int patternId) {
+            if (reportedEnd[patternId] != position) {
+                reportedEnd[patternId] = position;
+                listener.onMatch(start, position, patternId);
+            }
+        }
+
+        private void emitBest() {
+            listener.onMatch(bestStart, bestEnd, bestPattern);
+            hasBest = false;
+            position = bestEnd;
+            if (bestStart == bestEnd) {
+                lastEmptyMatch = bestEnd;
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Language-preserving reduction of a non-deterministic machine before subset construction.
+ * States which aren't reachable from the initial state or from which no terminal state is reachable are dropped,
+ * then states are merged by forward bisimulation (equal terminal flags and equal sets of successor blocks
+ * for every class) and by backward bisimulation (both or neither initial and equal sets of predecessor blocks).
+ * Both quotients are repeated while they shrink the machine.
+ */
+final class NonDeterministicReduction {
+    private NonDeterministicReduction() {
+    }
+
+    static <L> CompiledNonDeterministicStateMachine<L> reduce(CompiledNonDeterministicStateMachine<L> nsm) {
+        final int count = nsm.getSymbolClassesCount();
+        final int statesCount = nsm.getStatesCount();
+        final int[] start = new int[statesCount * count + 1];
+        final int[] successors = new int[nsm.getSuccessorsCount()];
+        final boolean[] terminals = new boolean[statesCount];
+        for (int q = 0; q < statesCount; q++) {
+            for (int c = 0; c < count; c++) {
+                start[q * count + c] = nsm.successorsStart(q, c);
+            }
+            terminals[q] = nsm.isTerminal(q);
+        }
+        start[statesCount * count] = successors.length;
+        for (int i = 0; i < successors.length; i++) {
+            successors[i] = nsm.successor(i);
+        }
+        Graph graph = new Graph(statesCount, count, start, successors, terminals, nsm.getInitialState());
+        graph = graph.quotient(trim(graph, nsm));
+        while (true) {
+            final int before = graph.statesCount;
+            graph = graph.quotient(Graph.refine(graph.forwardPartition(), graph));
+            final Graph reversed = graph.reverse();
+            graph = graph.quotient(Graph.refine(graph.backwardPartition(), reversed));
+            if (graph.statesCount == before) {
+                break;
+            }
+        }
+        final long[] terminalsMask = new long[(graph.statesCount + 63) >>> 6];
+        for (int q = 0; q < graph.statesCount; q++) {
+            if (graph.terminals[q]) {
+                terminalsMask[q >>> 6] |= 1L << q;
+            }
+        }
+        return new CompiledNonDeterministicStateMachine<>(nsm.getAlphabet(), nsm.getSymbolClasses(),
+                graph.statesCount, graph.start, graph.successors, terminalsMask, graph.initialState);
+    }
+
+    /**
+     * Returns the partition which keeps every useful state in its own block and drops the rest.
+     * The initial state is kept even if it's useless, so the result has at least one state.
+     */
+    private static int[] trim(Graph graph, CompiledNonDeterministicStateMachine<?> nsm) {
+        final int[] blocks = new int[graph.statesCount];
+        Arrays.fill(blocks, -1);
+        final int[] queue = new int[graph.statesCount];
+        int size = 0;
+        blocks[graph.initialState] = 0;
+        queue[size++] = graph.initialState;
+        if (nsm.isDead(graph.initialState)) {
+            return blocks;
+        }
+        for (int head = 0; head < size; head++) {
+            final int q = queue[head];
+            for (int i = graph.start[q * graph.count]; i < graph.start[(q + 1) * graph.count]; i++) {
+                final int target = graph.successors[i];
+                if (blocks[target] == -1 && !nsm.isDead(target)) {
+                    blocks[target] = size;
+                    queue[size++] = target;
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Machine in CSR form: successors of {@code (q, c)} are {@code successors[start[q * count + c]..]}.
+     */
+    private static class Graph {
+        private final int statesCount;
+        private final int count;
+        private final int[] start;
+        private final int[] successors;
+        private final boolean[] terminals;
+        private final int initialState;
+
+        private Graph(int statesCount, int count, int[] start, int[] successors, boolean[] terminals,
+                      int initialState) {
+            this.statesCount = statesCount;
+            this.count = count;
+            this.start = start;
+            this.successors = successors;
+            this.terminals = terminals;
+            this.initialState = initialState;
+        }
+
+        int[] forwardPartition() {
+            final int[] blocks = new int[statesCount];
+            for (int q = 0; q < statesCount; q++) {
+                blocks[q] = terminals[q] ? 1 : 0;
+            }
+            return blocks;
+        }
+
+        int[] backwardPartition() {
+            final int[] blocks = new int[statesCount];
+            blocks[initialState] = 1;
+            return blocks;
+        }
+
+        /**
+         * Refines the partition until states of a block have equal sets of blocks of {@code edges} targets
+         * for every class, and returns the coarsest such partition with blocks numbered from 0.
+         */
+        static int[] refine(int[] blocks, Graph edges) {
+            final int statesCount = edges.statesCount;
+            final int count = edges.count;
+            int degree = 0;
+            for (int q = 0; q < statesCount; q++) {
+                degree = Math.max(degree, edges.start[(q + 1) * count] - edges.start[q * count]);
+            }
+            final int[] buffer = new int[degree + count + 1];
+            int blocksCount = -1;
+            while (true) {
+                final Map<Signature, Integer> signatures = new HashMap<>();
+                final int[] refined = new int[statesCount];
+                for (int q = 0; q < statesCount; q++) {
+                    int length = 0;
+                    buffer[length++] = blocks[q];
+                    for (int c = 0; c < count; c++) {
+                        final int from = length;
+                        for (int i = edges.start[q * count + c]; i < edges.start[q * count + c + 1]; i++) {
+                            buffer[length++] = blocks[edges.successors[i]];
+                        }
+                        Arrays.sort(buffer, from, length);
+                        length = from + unique(buffer, from, length);
+                        buffer[length++] = -1;
+                    }
+                    final Signature signature = new Signature(Arrays.copyOf(buffer, length));
+                    final Integer block = signatures.putIfAbsent(signature, signatures.size());
+                    refined[q] = block == null ? signatures.size() - 1 : block;
+                }
+                if (signatures.size() == blocksCount) {
+                    return refined;
+                }
+                blocksCount = signatures.size();
+                blocks = refined;
+            }
+        }
+
+        private static int unique(int[] values, int from, int to) {
+            int length = 0;
+            for (int i = from; i < to; i++) {
+                if (length == 0 || values[from + length - 1] != values[i]) {
+                    values[from + length++] = values[i];
+                }
+            }
+            return length;
+        }
+
+        Graph reverse() {
+            final int[] reversedStart = new int[statesCount * count + 1];
+            for (int q = 0; q < statesCount; q++) {
+                for (int c = 0; c < count; c++) {
+                    for (int i = start[q * count + c]; i < start[q * count + c + 1]; i++) {
+                        reversedStart[successors[i] * count + c + 1]++;
+                    }
+                }
+            }
+            for (int i = 0; i < statesCount * count; i++) {
+                reversedStart[i + 1] += reversedStart[i];
+            }
+            final int[] filled = Arrays.copyOf(reversedStart, statesCount * count);
+            final int[] predecessors = new int[successors.length];
+            for (int q = 0; q < statesCount; q++) {
+                for (int c = 0; c < count; c++) {
+                    for (int i = start[q * count + c]; i < start[q * count + c + 1]; i++) {
+                        predecessors[filled[successors[i] * count + c]++] = q;
+                    }
+                }
+            }
+            return new Graph(statesCount, count, reversedStart, predecessors, terminals, initialState);
+        }
+
+        /**
+         * Merges states of every block, states of block -1 are dropped.
+         */
+        Graph quotient(int[] blocks) {
+            int blocksCount = 0;
+            for (int block : blocks) {
+                blocksCount = Math.max(blocksCount, block + 1);
+            }
+            final int[][] members = new int[blocksCount][];
+            final int[] sizes = new int[blocksCount];
+            for (int block : blocks) {
+                if (block != -1) {
+                    sizes[block]++;
+                }
+            }
+            for (int b = 0; b < blocksCount; b++) {
+                members[b] = new int[sizes[b]];
+                sizes[b] = 0;
+            }
+            for (int q = 0; q < statesCount; q++) {
+                if (blocks[q] != -1) {
+                    members[blocks[q]][sizes[blocks[q]]++] = q;
+                }
+            }
+            final int[] newStart = new int[blocksCount * count + 1];
+            int[] newSuccessors = new int[successors.length];
+            final boolean[] newTerminals = new boolean[blocksCount];
+            final int[] marks = new int[blocksCount];
+            Arrays.fill(marks, -1);
+            int position = 0;
+            for (int b = 0; b < blocksCount; b++) {
+                for (int c = 0; c < count; c++) {
+                    final int from = position;
+                    newStart[b * count + c] = from;
+                    for (int q : members[b]) {
+                        for (int i = start[q * count + c]; i < start[q * count + c + 1]; i++) {
+                            final int target = blocks[successors[i]];
+                            if (target != -1 && marks[target] != b * count + c) {
+                                marks[target] = b * count + c;
+                                newSuccessors[position++] = target;
+                            }
+                        }
+                    }
+                    Arrays.sort(newSuccessors, from, position);
+                }
+                for (int q : members[b]) {
+                    newTerminals[b] |= terminals[q];
+                }
+            }
+            newStart[blocksCount * count] = position;
+            return new Graph(blocksCount, count, newStart, Arrays.copyOf(newSuccessors, position), newTerminals,
+                    blocks[initialState]);
+        }
+    }
+
+    private static class Signature {
+        private final int[] values;
+        private final int hash;
+
+        private Signature(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && Arrays.equals(values, ((Signature) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,15 +1,21 @@
 package ru.mit.spbau.lobanov.statemachine;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class NonDeterministicStateMachine<L> implements StateMachine<L> {
+    private static final int PROGRESS_PERIOD = 4096;
+
     private final List<State> states = new ArrayList<>();
     private final Alphabet<L> alphabet;
     private State initialState;
+    private CompiledNonDeterministicStateMachine<L> compiled;
+    private String structuralHash;
 
     public NonDeterministicStateMachine(Alphabet<L> alphabet) {
         this.alphabet = alphabet;
@@ -17,11 +23,15 @@ public class NonDeterministicStateMachine<L> implements StateMachine<L> {
 
     public void setInitialState(@NotNull State state) {
         initialState = state;
+        compiled = null;
+        structuralHash = null;
     }
 
     public State addState(boolean isTerminal, @NotNull String label) {
         final State state = new State(isTerminal, alphabet.size(), states.size(), label);
         states.add(state);
+        compiled = null;
+        structuralHash = null;
         return state;
     }
 
@@ -31,28 +41,221 @@ public class NonDeterministicStateMachine<L> implements StateMachine<L> {
 
     public void addEdge(@NotNull State from, @NotNull L key, @NotNull State to) {
         from.edges[alphabet.getIndex(key)].set(to.id);
+        compiled = null;
+        structuralHash = null;
     }
 
     @Override
     @SafeVarargs
+    @SuppressWarnings("varargs") // the word is only read by the delegate
     public final boolean accept(L... word) {
-        BitSet possibleStates = new BitSet();
-        possibleStates.set(initialState.id);
-        for (L symbol : word) {
-            final int symbolId = alphabet.getIndex(symbol);
-            final BitSet nextStates = new BitSet();
-            possibleStates.stream()
-                    .mapToObj(states::get)
-                    .map(state -> state.edges[symbolId])
-                    .forEach(nextStates::or);
-            possibleStates = nextStates;
+        return compiled().accept(word);
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return compiled().accept(word);
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return compiled().accept(word, from, to);
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return compiled().accept(word, from, to);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words) {
+        return compiled().acceptAll(words);
+    }
+
+    public BitSet acceptAll(List<? extends CharSequence> words, ForkJoinPool pool) {
+        return compiled().acceptAll(words, pool);
+    }
+
+    public BitSet acceptAll(char[][] words) {
+        return compiled().acceptAll(words);
+    }
+
+    public BitSet acceptAll(char[][] words, ForkJoinPool pool) {
+        return compiled().acceptAll(words, pool);
+    }
+
+    private CompiledNonDeterministicStateMachine<L> compiled() {
+        CompiledNonDeterministicStateMachine<L> result = compiled;
+        if (result == null) {
+            result = compile(true);
+            compiled = result;
+        }
+        return result;
+    }
+
+    /**
+     * Compiles the machine keeping its states and their numbers.
+     */
+    public CompiledNonDeterministicStateMachine<L> compile() {
+        return compile(false);
+    }
+
+    /**
+     * Compiles the machine, if {@code reduce} is set useless states are dropped and bisimilar states are merged
+     * (see {@link #reduce()}), so states of the result don't correspond to states of this machine.
+     */
+    public CompiledNonDeterministicStateMachine<L> compile(boolean reduce) {
+        if (reduce) {
+            return NonDeterministicReduction.reduce(compile(false));
+        }
+        if (initialState == null) {
+            throw new RuntimeException("Initial state is not set");
+        }
+        final SymbolClasses classes = SymbolClasses.compute(alphabet, new SymbolClasses.Columns() {
+            @Override
+            public long hash(int symbol) {
+                long hash = 0;
+                for (State state : states) {
+                    hash = hash * 1_000_000_007L + state.edges[symbol].hashCode();
+                }
+                return hash;
+            }
+
+            @Override
+            public boolean equal(int a, int b) {
+                for (State state : states) {
+                    if (!state.edges[a].equals(state.edges[b])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        final int count = classes.count();
+        final int[] successorsStart = new int[states.size() * count + 1];
+        int edgesCount = 0;
+        for (State state : states) {
+            for (int c = 0; c < count; c++) {
+                edgesCount += state.edges[classes.representative(c)].cardinality();
+            }
+        }
+        final int[] successors = new int[edgesCount];
+        final long[] terminals = new long[(states.size() + 63) >>> 6];
+        int position = 0;
+        for (State state : states) {
+            for (int c = 0; c < count; c++) {
+                successorsStart[state.id * count + c] = position;
+                final BitSet edges = state.edges[classes.representative(c)];
+                for (int i = edges.nextSetBit(0); i >= 0; i = edges.nextSetBit(i + 1)) {
+                    successors[position++] = i;
+                }
+            }
+            if (state.isTerminal) {
+                terminals[state.id >>> 6] |= 1L << state.id;
+            }
+        }
+        successorsStart[states.size() * count] = position;
+        return new CompiledNonDeterministicStateMachine<>(alphabet, classes, states.size(), successorsStart,
+                successors, terminals, initialState.id);
+    }
+
+    public boolean isEmpty() {
+        final CompiledNonDeterministicStateMachine<L> compiled = compiled();
+        return compiled.isDead(compiled.getInitialState());
+    }
+
+    public boolean isSubsetOf(NonDeterministicStateMachine<L> another) {
+        return findWordNotIn(another) == null;
+    }
+
+    public boolean isEquivalent(NonDeterministicStateMachine<L> another) {
+        return isSubsetOf(another) && another.isSubsetOf(this);
+    }
+
+    /**
+     * Returns one of the shortest accepted words, or null if the language is empty.
+     */
+    @Nullable
+    public List<L> findShortestWord() {
+        return alphabet.getSymbols(LanguageChecks.shortestWord(compiled()));
+    }
+
+    /**
+     * Returns one of the shortest words accepted by exactly one of the machines, or null if they are equivalent.
+     */
+    @Nullable
+    public List<L> findDistinguishingWord(NonDeterministicStateMachine<L> another) {
+        final List<L> extra = findWordNotIn(another);
+        final List<L> missing = another.findWordNotIn(this);
+        if (extra == null || missing != null && missing.size() < extra.size()) {
+            return missing;
+        }
+        return extra;
+    }
+
+    /**
+     * Returns one of the shortest words accepted by this machine and rejected by another,
+     * or null if the language of this machine is a subset of the language of another.
+     * Subset construction isn't performed: the search keeps an antichain of (state, set of states) pairs.
+     */
+    @Nullable
+    public List<L> findWordNotIn(NonDeterministicStateMachine<L> another) {
+        if (!alphabet.isIdentical(another.alphabet)) {
+            throw new RuntimeException("Machines have different alphabets");
+        }
+        return alphabet.getSymbols(LanguageChecks.wordNotIn(compiled(), another.compiled()));
+    }
+
+    public LazyDeterministicStateMachine<L> lazy(int cacheSize) {
+        return compiled().lazy(cacheSize);
+    }
+
+    public BitParallelNonDeterministicStateMachine<L> bitParallel() {
+        return compile().bitParallel();
+    }
+
+    /**
+     * Returns an equivalent machine without states which are unreachable or can't reach a terminal state,
+     * in which states with equal futures (forward bisimulation) and equal pasts (backward bisimulation) are merged.
+     * For a dictionary built branch per word this merges common suffixes and common prefixes of the branches.
+     */
+    public NonDeterministicStateMachine<L> reduce() {
+        final CompiledNonDeterministicStateMachine<L> reduced = compiled();
+        final SymbolClasses classes = reduced.getSymbolClasses();
+        final NonDeterministicStateMachine<L> nsm = new NonDeterministicStateMachine<>(alphabet);
+        for (int q = 0; q < reduced.getStatesCount(); q++) {
+            nsm.addState(reduced.isTerminal(q));
         }
-        return possibleStates.stream()
-                .mapToObj(states::get)
-                .anyMatch(state -> state.isTerminal);
+        for (int q = 0; q < reduced.getStatesCount(); q++) {
+            final State state = nsm.states.get(q);
+            for (int s = 0; s < alphabet.size(); s++) {
+                final int symbolClass = classes.ofIndex(s);
+                for (int i = reduced.successorsStart(q, symbolClass); i < reduced.successorsEnd(q, symbolClass); i++) {
+                    state.edges[s].set(reduced.successor(i));
+                }
+            }
+        }
+        nsm.setInitialState(nsm.states.get(reduced.getInitialState()));
+        return nsm;
     }
 
+    /**
+     * Determines the reduced machine, see {@link #reduce()}.
+     */
     public DeterministicStateMachine<L> determine() {
+        return determine(true);
+    }
+
+    public DeterministicStateMachine<L> determine(boolean reduce) {
+        return BuildCache.cached(alphabet,
+                () -> BuildCache.key(reduce ? "determine reduced" : "determine", structuralHash()), () -> {
+                    final StateMachineMetrics.Construction construction = StateMachineMetrics.start(
+                            ConstructionStats.Operation.DETERMINE, states.size(),
+                            StateMachineMetrics.ENABLED ? transitionsCount() : 0);
+                    return reduce ? reduce().determine(construction) : determine(construction);
+                });
+    }
+
+    private DeterministicStateMachine<L> determine(StateMachineMetrics.Construction construction) {
         final DeterministicStateMachine<L> dsm = new DeterministicStateMachine<>(alphabet);
         final HashMap<BitSet, DeterministicStateMachine.State> newStates = new HashMap<>();
         final Queue<BitSet> queue = new ArrayDeque<>();
@@ -78,53 +281,91 @@ public class NonDeterministicStateMachine<L> implements StateMachine<L> {
                     next = dsm.addState(containsTerminal(nextStates));
                     newStates.put(nextStates, next);
                     queue.add(nextStates);
+                    if (newStates.size() % PROGRESS_PERIOD == 0) {
+                        StateMachineMetrics.progress(ConstructionStats.Operation.DETERMINE, newStates.size());
+                    }
                 }
                 dsm.setEdge(state, alphabet.getSymbol(s), next);
             }
         }
         dsm.setInitialState(newStates.get(initialStateMask));
+        StateMachineMetrics.finish(construction, newStates.size(), (long) newStates.size() * alphabet.size());
         return dsm;
     }
 
+    public DeterministicStateMachine<L> determine(ForkJoinPool pool) {
+        return ParallelSubsetConstruction.determine(compiled(), pool, CompactDeterministicStateMachine.Storage.HEAP)
+                .toDeterministic();
+    }
+
+    /**
+     * Determines the machine straight into struct-of-arrays form, without creating an object per state
+     * of the result, see {@link CompactDeterministicStateMachine}.
+     */
+    public CompactDeterministicStateMachine<L> determine(ForkJoinPool pool,
+                                                         CompactDeterministicStateMachine.Storage storage) {
+        return ParallelSubsetConstruction.determine(compiled(), pool, storage);
+    }
+
     @Override
-    public void writeStateMachine(PrintWriter out) {
-        out.println("digraph dsm {");
-        for (State state : states) {
-            out.print("    S" + state.id + " [label=\"" + state.label + "\"]");
-            out.println("[shape=" + (state.isTerminal ? "double" : "") + "circle];");
-        }
-        out.println("SPACE [color=white][label=\"\"];");
-        for (State state : states) {
-            final Map<State, String> labels = new HashMap<>();
-            for (int s = 0; s < alphabet.size(); s++) {
-                final L symbol = alphabet.getSymbol(s);
-                state.edges[s].stream()
-                        .forEach(i -> {
-                            final State target = states.get(i);
-                            final String prefix = labels.containsKey(target) ? labels.get(target) + "," : "";
-                            labels.put(target, prefix + symbol);
-                        });
-            }
-            for (Map.Entry<State, String> edge : labels.entrySet()) {
-                out.print("    S" + state.id + " -> ");
-                out.print("S" + edge.getKey().id);
-                out.println(" [label = \"" + edge.getValue() + "\"];");
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        writer.write(StateMachineWriter.nonDeterministic(alphabet, states.size(),
+                initialState == null ? -1 : initialState.id, i -> states.get(i).isTerminal, i -> states.get(i).label,
+                (state, symbol, buffer) -> {
+                    final BitSet edges = states.get(state).edges[symbol];
+                    int count = 0;
+                    for (int i = edges.nextSetBit(0); i >= 0; i = edges.nextSetBit(i + 1)) {
+                        buffer[count++] = i;
+                    }
+                    return count;
+                }), out);
+    }
+
+    /**
+     * Returns the SHA-256 of the alphabet, terminal states, edges and initial state of the machine in hex.
+     * Machines with the same hash have the same language and the same numbering of states; labels are ignored.
+     */
+    public String structuralHash() {
+        String result = structuralHash;
+        if (result == null) {
+            final StructuralHash hash = new StructuralHash('N', alphabet, states.size(),
+                    initialState == null ? -1 : initialState.id);
+            for (State state : states) {
+                hash.putBoolean(state.isTerminal);
+                for (BitSet edges : state.edges) {
+                    hash.putInt(edges.cardinality());
+                    for (int i = edges.nextSetBit(0); i >= 0; i = edges.nextSetBit(i + 1)) {
+                        hash.putInt(i);
+                    }
+                }
             }
+            result = hash.finish();
+            structuralHash = result;
         }
-        if (initialState != null) {
-            out.println("SPACE -> S" + initialState.id + ";");
-        }
-        out.println("}");
+        return result;
     }
 
     public State getInitialState() {
         return initialState;
     }
 
+    private long transitionsCount() {
+        long count = 0;
+        for (State state : states) {
+            for (BitSet edges : state.edges) {
+                count += edges.cardinality();
+            }
+        }
+        return count;
+    }
+
     private boolean containsTerminal(BitSet bitSet) {
-        return bitSet.stream()
-                .mapToObj(states::get)
-                .anyMatch(state -> state.isTerminal);
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            if (states.get(i).isTerminal) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static class State {
@@ -0,0 +1,148 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Subset construction which expands the BFS frontier level by level on a {@link ForkJoinPool}.
+ * Successors are hash-consed through a concurrent table; ids are assigned afterwards in
+ * (frontier order, symbol order), which is exactly the numbering of the sequential BFS.
+ */
+final class ParallelSubsetConstruction {
+    private static final int GRAIN = 32;
+
+    private ParallelSubsetConstruction() {
+    }
+
+    static <L> CompactDeterministicStateMachine<L> determine(CompiledNonDeterministicStateMachine<L> nsm,
+                                                             ForkJoinPool pool,
+                                                             CompactDeterministicStateMachine.Storage storage) {
+        final StateMachineMetrics.Construction construction = StateMachineMetrics.start(
+                ConstructionStats.Operation.DETERMINE, nsm.getStatesCount(), nsm.getSuccessorsCount());
+        final int alphabetSize = nsm.getAlphabet().size();
+        final ConcurrentHashMap<Subset, Subset> table = new ConcurrentHashMap<>();
+        final List<Subset> states = new ArrayList<>();
+        final CompactDeterministicStateMachine<L> dsm = new CompactDeterministicStateMachine<>(nsm.getAlphabet(),
+                storage);
+        final Subset initial = new Subset(new int[]{nsm.getInitialState()}, nsm.isTerminal(nsm.getInitialState()));
+        initial.id = dsm.addState(initial.isTerminal);
+        table.put(initial, initial);
+        states.add(initial);
+        int levelStart = 0;
+        while (levelStart < states.size()) {
+            final int levelEnd = states.size();
+            final Subset[] successors = new Subset[(levelEnd - levelStart) * alphabetSize];
+            pool.invoke(new Expand<>(nsm, table, states, levelStart, levelStart, levelEnd, successors));
+            for (int i = 0; i < successors.length; i++) {
+                final Subset next = successors[i];
+                if (next.id == -1) {
+                    next.id = dsm.addState(next.isTerminal);
+                    states.add(next);
+                }
+                dsm.setTarget(levelStart + i / alphabetSize, i % alphabetSize, next.id);
+            }
+            levelStart = levelEnd;
+            StateMachineMetrics.progress(ConstructionStats.Operation.DETERMINE, states.size());
+        }
+        dsm.setInitialState(0);
+        StateMachineMetrics.finish(construction, states.size(), (long) states.size() * alphabetSize);
+        return dsm;
+    }
+
+    private static class Expand<L> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledNonDeterministicStateMachine<L> nsm;
+        private final ConcurrentHashMap<Subset, Subset> table;
+        private final List<Subset> states;
+        private final int levelStart;
+        private final int from;
+        private final int to;
+        private final Subset[] successors;
+
+        private Expand(CompiledNonDeterministicStateMachine<L> nsm, ConcurrentHashMap<Subset, Subset> table,
+                       List<Subset> states, int levelStart, int from, int to, Subset[] successors) {
+            this.nsm = nsm;
+            this.table = table;
+            this.states = states;
+            this.levelStart = levelStart;
+            this.from = from;
+            this.to = to;
+            this.successors = successors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Expand<>(nsm, table, states, levelStart, from, middle, successors),
+                        new Expand<>(nsm, table, states, levelStart, middle, to, successors));
+                return;
+            }
+            final int alphabetSize = nsm.getAlphabet().size();
+            final SymbolClasses classes = nsm.getSymbolClasses();
+            final long[] mask = new long[(nsm.getStatesCount() + 63) >>> 6];
+            final int[] buffer = new int[nsm.getStatesCount()];
+            final Subset[] byClass = new Subset[classes.count()];
+            for (int i = from; i < to; i++) {
+                final Subset subset = states.get(i);
+                for (int c = 0; c < byClass.length; c++) {
+                    int count = 0;
+                    boolean isTerminal = false;
+                    for (int q : subset.states) {
+                        for (int j = nsm.successorsStart(q, c); j < nsm.successorsEnd(q, c); j++) {
+                            final int target = nsm.successor(j);
+                            if ((mask[target >>> 6] & (1L << target)) == 0) {
+                                mask[target >>> 6] |= 1L << target;
+                                buffer[count++] = target;
+                                isTerminal |= nsm.isTerminal(target);
+                            }
+                        }
+                    }
+                    final int[] targets = Arrays.copyOf(buffer, count);
+                    for (int target : targets) {
+                        mask[target >>> 6] = 0;
+                    }
+                    Arrays.sort(targets);
+                    final Subset candidate = new Subset(targets, isTerminal);
+                    final Subset known = table.putIfAbsent(candidate, candidate);
+                    byClass[c] = known == null ? candidate : known;
+                }
+                for (int s = 0; s < alphabetSize; s++) {
+                    successors[(i - levelStart) * alphabetSize + s] = byClass[classes.ofIndex(s)];
+                }
+            }
+        }
+    }
+
+    private static class Subset {
+        private final int[] states;
+        private final int hash;
+        private final boolean isTerminal;
+        private int id = -1;
+
+        private Subset(int[] states, boolean isTerminal) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+            this.isTerminal = isTerminal;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Subset subset = (Subset) o;
+            return hash == subset.hash && Arrays.equals(states, subset.states);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.Arrays;
+
+/**
+ * Product of two deterministic machines for a boolean operation on their languages.
+ * Reachable pairs of states are numbered in BFS order through a primitive long-to-int map,
+ * and transitions are computed once per class of symbols which behave identically in both machines.
+ * <p>
+ * With minimization enabled, pairs whose language is already known to be empty or universal
+ * (for example, a pair with a dead state in an intersection) are merged into one sink state without
+ * being explored, and the result is minimized by {@link HopcroftMinimizer}.
+ */
+final class ProductConstruction<L> {
+    private static final int EMPTY_SINK = -1;
+    private static final int FULL_SINK = -2;
+    private static final int UNDECIDED = 0;
+
+    private final CompiledDeterministicStateMachine<L> first;
+    private final CompiledDeterministicStateMachine<L> second;
+    private final Operation operation;
+    private final boolean minimize;
+    private final LongIntHashMap ids;
+    private int[] firstStates = new int[16];
+    private int[] secondStates = new int[16];
+    private long[] terminals = new long[1];
+    private int statesCount;
+
+    private ProductConstruction(CompiledDeterministicStateMachine<L> first, CompiledDeterministicStateMachine<L> second,
+                                Operation operation, boolean minimize) {
+        this.first = first;
+        this.second = second;
+        this.operation = operation;
+        this.minimize = minimize;
+        ids = new LongIntHashMap(first.getStatesCount() + second.getStatesCount());
+    }
+
+    static <L> CompactDeterministicStateMachine<L> build(CompiledDeterministicStateMachine<L> first,
+                                                         CompiledDeterministicStateMachine<L> second,
+                                                         Operation operation, boolean minimize,
+                                                         CompactDeterministicStateMachine.Storage storage) {
+        final int inputStatesCount = first.getStatesCount() + second.getStatesCount();
+        final StateMachineMetrics.Construction construction = StateMachineMetrics.start(
+                ConstructionStats.Operation.valueOf(operation.name()), inputStatesCount,
+                (long) inputStatesCount * first.getAlphabet().size());
+        final Alphabet<L> alphabet = first.getAlphabet();
+        final SymbolClasses classes = SymbolClasses.join(alphabet, first.getSymbolClasses(),
+                second.getSymbolClasses());
+        final int count = classes.count();
+        final ProductConstruction<L> product = new ProductConstruction<>(first, second, operation, minimize);
+        int[] table = new int[16 * count];
+        product.id(first.getInitialState(), second.getInitialState());
+        for (int q = 0; q < product.statesCount; q++) {
+            final int a = product.firstStates[q];
+            final int b = product.secondStates[q];
+            for (int c = 0; c < count; c++) {
+                final int target;
+                if (a < 0) {
+                    target = q;
+                } else {
+                    final int symbol = classes.representative(c);
+                    target = product.id(first.getTransition(a, symbol), second.getTransition(b, symbol));
+                }
+                if (table.length <= q * count + c) {
+                    table = Arrays.copyOf(table, Math.max(table.length * 2, (q + 1) * count));
+                }
+                table[q * count + c] = target;
+            }
+        }
+        int statesCount = product.statesCount;
+        long[] terminals = product.terminals;
+        if (minimize) {
+            final int[] partition = HopcroftMinimizer.minimize(statesCount, count, table, terminals, 0);
+            int minimizedCount = 0;
+            for (int id : partition) {
+                minimizedCount = Math.max(minimizedCount, id + 1);
+            }
+            final int[] minimizedTable = new int[minimizedCount * count];
+            final long[] minimizedTerminals = new long[(minimizedCount + 63) >>> 6];
+            final boolean[] filled = new boolean[minimizedCount];
+            for (int q = 0; q < statesCount; q++) {
+                final int id = partition[q];
+                if (id == -1 || filled[id]) {
+                    continue;
+                }
+                filled[id] = true;
+                for (int c = 0; c < count; c++) {
+                    minimizedTable[id * count + c] = partition[table[q * count + c]];
+                }
+                if ((terminals[q >>> 6] & (1L << q)) != 0) {
+                    minimizedTerminals[id >>> 6] |= 1L << id;
+                }
+            }
+            statesCount = minimizedCount;
+            table = minimizedTable;
+            terminals = minimizedTerminals;
+        }
+        StateMachineMetrics.finish(construction, statesCount, (long) statesCount * alphabet.size());
+        return CompactDeterministicStateMachine.fromClassTable(alphabet, classes, statesCount, table, terminals, 0,
+                storage);
+    }
+
+    private int id(int a, int b) {
+        final int decided = minimize ? decide(a, b) : UNDECIDED;
+        if (decided != UNDECIDED) {
+            a = decided;
+            b = decided;
+        }
+        final long key = ((long) a << 32) | (b & 0xFFFFFFFFL);
+        final int known = ids.putIfAbsent(key, statesCount);
+        if (known != -1) {
+            return known;
+        }
+        final boolean isTerminal = decided == UNDECIDED
+                ? operation.apply(first.isTerminal(a), second.isTerminal(b))
+                : decided == FULL_SINK;
+        return register(a, b, isTerminal);
+    }
+
+    private int register(int a, int b, boolean isTerminal) {
+        final int id = statesCount++;
+        if (id == firstStates.length) {
+            firstStates = Arrays.copyOf(firstStates, id * 2);
+            secondStates = Arrays.copyOf(secondStates, id * 2);
+        }
+        if ((id >>> 6) == terminals.length) {
+            terminals = Arrays.copyOf(terminals, terminals.length * 2);
+        }
+        firstStates[id] = a;
+        secondStates[id] = b;
+        if (isTerminal) {
+            terminals[id >>> 6] |= 1L << id;
+        }
+        return id;
+    }
+
+    /**
+     * Checks whether the language of the pair is empty or universal knowing only
+     * which states of the operands are dead or always accepting.
+     */
+    private int decide(int a, int b) {
+        final int firstValues = possibleValues(first, a);
+        final int secondValues = possibleValues(second, b);
+        int results = 0;
+        for (int x = 0; x < 2; x++) {
+            for (int y = 0; y < 2; y++) {
+                if ((firstValues & (1 << x)) != 0 && (secondValues & (1 << y)) != 0) {
+                    results |= operation.apply(x == 1, y == 1) ? 2 : 1;
+                }
+            }
+        }
+        return results == 1 ? EMPTY_SINK : results == 2 ? FULL_SINK : UNDECIDED;
+    }
+
+    private static int possibleValues(CompiledDeterministicStateMachine<?> machine, int state) {
+        return machine.isDead(state) ? 1 : machine.isAlwaysAccepting(state) ? 2 : 3;
+    }
+
+    enum Operation {
+        INTERSECTION {
+            @Override
+            boolean apply(boolean a, boolean b) {
+                return a && b;
+            }
+        },
+        UNION {
+            @Override
+            boolean apply(boolean a, boolean b) {
+                return a || b;
+            }
+        },
+        DIFFERENCE {
+            @Override
+            boolean apply(boolean a, boolean b) {
+                return a && !b;
+            }
+        },
+        SYMMETRIC_DIFFERENCE {
+            @Override
+            boolean apply(boolean a, boolean b) {
+                return a != b;
+            }
+        };
+
+        abstract boolean apply(boolean a, boolean b);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+final class Reachability {
+    private Reachability() {
+    }
+
+    /**
+     * Returns the bit mask of states from which some terminal state is reachable.
+     * The graph is given in CSR form: targets of {@code q} are {@code targets[start[q]..start[q + 1])}.
+     */
+    static long[] coReachable(int statesCount, int[] start, int[] targets, long[] terminals) {
+        final int[] inverseStart = new int[statesCount + 1];
+        for (int i = 0; i < start[statesCount]; i++) {
+            inverseStart[targets[i] + 1]++;
+        }
+        for (int q = 0; q < statesCount; q++) {
+            inverseStart[q + 1] += inverseStart[q];
+        }
+        final int[] filled = new int[statesCount];
+        System.arraycopy(inverseStart, 0, filled, 0, statesCount);
+        final int[] inverse = new int[start[statesCount]];
+        for (int q = 0; q < statesCount; q++) {
+            for (int i = start[q]; i < start[q + 1]; i++) {
+                inverse[filled[targets[i]]++] = q;
+            }
+        }
+        final long[] live = new long[(statesCount + 63) >>> 6];
+        final int[] queue = new int[statesCount];
+        int size = 0;
+        for (int q = 0; q < statesCount; q++) {
+            if ((terminals[q >>> 6] & (1L << q)) != 0) {
+                live[q >>> 6] |= 1L << q;
+                queue[size++] = q;
+            }
+        }
+        for (int head = 0; head < size; head++) {
+            final int q = queue[head];
+            for (int i = inverseStart[q]; i < inverseStart[q + 1]; i++) {
+                final int p = inverse[i];
+                if ((live[p >>> 6] & (1L << p)) == 0) {
+                    live[p >>> 6] |= 1L << p;
+                    queue[size++] = p;
+                }
+            }
+        }
+        return live;
+    }
+}
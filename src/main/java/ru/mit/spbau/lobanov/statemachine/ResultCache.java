@@ -0,0 +1,15 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Storage of results of constructions, keyed by the operation and the structural hashes of its arguments,
+ * see {@link BuildCache}. Implementations must be thread-safe; a cache may forget entries at any moment.
+ */
+public interface ResultCache {
+    @Nullable
+    CompiledDeterministicStateMachine<?> get(@NotNull String key);
+
+    void put(@NotNull String key, @NotNull CompiledDeterministicStateMachine<?> machine);
+}
@@ -0,0 +1,518 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a class implementing {@link DeterministicRunner} for one machine.
+ * Every live state becomes a block of code which reads a symbol, maps it to its class and jumps
+ * straight to the block of the next state through a switch, so the current state is never stored.
+ * Transitions into dead states return -1, transitions into always accepting states only check
+ * that the rest of the word consists of known symbols.
+ * <p>
+ * Classes are written in version 49 format, which doesn't need stack map frames, and every class
+ * is defined by its own class loader, so it's unloaded together with the machine.
+ */
+final class RunnerGenerator {
+    /**
+     * HotSpot doesn't compile methods larger than this, so bigger machines would run in the interpreter.
+     */
+    static final int MAX_METHOD_SIZE = 8000;
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final String RUNNER = "ru/mit/spbau/lobanov/statemachine/DeterministicRunner";
+
+    private static final int CHARS = 0;
+    private static final int BYTES = 1;
+    private static final int SEQUENCE = 2;
+
+    private static final int STATE = 1;
+    private static final int WORD = 2;
+    private static final int POSITION = 3;
+    private static final int END = 4;
+    private static final int CLASSES = 5;
+    private static final int SYMBOL = 6;
+
+    private final CompiledDeterministicStateMachine<?> machine;
+    private final SymbolClasses classes;
+    private final ConstantPool pool = new ConstantPool();
+
+    private RunnerGenerator(CompiledDeterministicStateMachine<?> machine) {
+        this.machine = machine;
+        this.classes = machine.getSymbolClasses();
+    }
+
+    static DeterministicRunner generate(CompiledDeterministicStateMachine<?> machine) {
+        final String name = "ru/mit/spbau/lobanov/statemachine/GeneratedRunner$" + COUNTER.incrementAndGet();
+        final byte[] bytes = new RunnerGenerator(machine).write(name);
+        final Loader loader = new Loader(RunnerGenerator.class.getClassLoader());
+        try {
+            return (DeterministicRunner) loader.define(name.replace('/', '.'), bytes).newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] write(String name) {
+        final int thisClass = pool.classInfo(name);
+        final int superClass = pool.classInfo("java/lang/Object");
+        final int runner = pool.classInfo(RUNNER);
+        final List<byte[]> methods = new ArrayList<>();
+        methods.add(method("<init>", "()V", 1, 1, constructor()));
+        methods.add(method("run", "(I[CII[I)I", 4, 7, run(CHARS)));
+        methods.add(method("run", "(I[BII[I)I", 4, 7, run(BYTES)));
+        methods.add(method("run", "(ILjava/lang/CharSequence;II[I)I", 4, 7, run(SEQUENCE)));
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(runner);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] method(String name, String descriptor, int maxStack, int maxLocals, Code code) {
+        final byte[] body = code.toByteArray();
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(0x0001);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Code constructor() {
+        final Code code = new Code();
+        code.op(0x2a); // aload_0
+        code.op(0xb7); // invokespecial
+        code.u2(pool.methodRef("java/lang/Object", "<init>", "()V", false));
+        code.op(0xb1); // return
+        return code;
+    }
+
+    private Code run(int input) {
+        final int statesCount = machine.getStatesCount();
+        final Code code = new Code();
+        final Label reject = new Label();
+        final Label validate = new Label();
+        final Label[] blocks = new Label[statesCount];
+        final Label[] stubs = new Label[statesCount];
+        for (int q = 0; q < statesCount; q++) {
+            blocks[q] = new Label();
+            stubs[q] = new Label();
+        }
+        final Label[] entries = new Label[statesCount];
+        for (int q = 0; q < statesCount; q++) {
+            entries[q] = target(q, blocks, stubs, reject);
+        }
+        code.load(STATE);
+        code.tableswitch(0, statesCount - 1, reject, entries);
+
+        final Label[] targets = new Label[classes.count()];
+        for (int q = 0; q < statesCount; q++) {
+            if (machine.isDead(q) || machine.isAlwaysAccepting(q)) {
+                continue;
+            }
+            final Label end = new Label();
+            code.mark(blocks[q]);
+            code.load(POSITION);
+            code.load(END);
+            code.jump(0xa2, end); // if_icmpge
+            readClass(code, input, reject);
+            code.op(0x84); // iinc
+            code.op(POSITION);
+            code.op(1);
+            for (int c = 0; c < targets.length; c++) {
+                targets[c] = target(machine.getTransition(q, classes.representative(c)), blocks, stubs, reject);
+            }
+            dispatch(code, targets, reject);
+            code.mark(end);
+            code.push(q, pool);
+            code.op(0xac); // ireturn
+        }
+
+        for (int q = 0; q < statesCount; q++) {
+            if (machine.isAlwaysAccepting(q) && !machine.isDead(q)) {
+                code.mark(stubs[q]);
+                code.push(q, pool);
+                code.op(0x3c); // istore_1
+                code.jump(0xa7, validate); // goto
+            }
+        }
+
+        final Label accept = new Label();
+        code.mark(validate);
+        code.load(POSITION);
+        code.load(END);
+        code.jump(0xa2, accept); // if_icmpge
+        readClass(code, input, reject);
+        code.jump(0x9b, reject); // iflt
+        code.op(0x84); // iinc
+        code.op(POSITION);
+        code.op(1);
+        code.jump(0xa7, validate); // goto
+        code.mark(accept);
+        code.load(STATE);
+        code.op(0xac); // ireturn
+
+        code.mark(reject);
+        code.op(0x02); // iconst_m1
+        code.op(0xac); // ireturn
+        code.resolve();
+        if (code.length > MAX_METHOD_SIZE) {
+            throw new RuntimeException("Machine is too large for code generation: " + code.length + " bytes");
+        }
+        return code;
+    }
+
+    private Label target(int state, Label[] blocks, Label[] stubs, Label reject) {
+        if (machine.isDead(state)) {
+            return reject;
+        }
+        return machine.isAlwaysAccepting(state) ? stubs[state] : blocks[state];
+    }
+
+    /**
+     * Leaves the class of the symbol at the current position on the stack.
+     */
+    private void readClass(Code code, int input, Label reject) {
+        if (input == BYTES) {
+            code.loadReference(CLASSES);
+            code.loadReference(WORD);
+            code.load(POSITION);
+            code.op(0x33); // baload
+            code.op(0x11); // sipush
+            code.u2(0xFF);
+            code.op(0x7e); // iand
+            code.op(0x2e); // iaload
+            return;
+        }
+        code.loadReference(WORD);
+        code.load(POSITION);
+        if (input == CHARS) {
+            code.op(0x34); // caload
+        } else {
+            code.op(0xb9); // invokeinterface
+            code.u2(pool.methodRef("java/lang/CharSequence", "charAt", "(I)C", true));
+            code.op(2);
+            code.op(0);
+        }
+        code.store(SYMBOL);
+        code.load(SYMBOL);
+        code.loadReference(CLASSES);
+        code.op(0xbe); // arraylength
+        code.jump(0xa2, reject); // if_icmpge
+        code.loadReference(CLASSES);
+        code.load(SYMBOL);
+        code.op(0x2e); // iaload
+    }
+
+    /**
+     * Consumes the class on the stack and jumps to its target; negative classes are rejected.
+     * The most frequent target becomes the default branch of the switch.
+     */
+    private void dispatch(Code code, Label[] targets, Label reject) {
+        final Map<Label, Integer> frequencies = new HashMap<>();
+        Label common = reject;
+        for (Label target : targets) {
+            final int frequency = frequencies.merge(target, 1, Integer::sum);
+            if (frequency > frequencies.getOrDefault(common, 0)) {
+                common = target;
+            }
+        }
+        if (common != reject) {
+            code.store(SYMBOL);
+            code.load(SYMBOL);
+            code.jump(0x9b, reject); // iflt
+            if (frequencies.get(common) == targets.length) {
+                code.jump(0xa7, common); // goto
+                return;
+            }
+            code.load(SYMBOL);
+        }
+        int sparse = 0;
+        for (Label target : targets) {
+            if (target != common) {
+                sparse++;
+            }
+        }
+        if (sparse == 0) {
+            code.op(0x57); // pop
+            code.jump(0xa7, common); // goto
+        } else if (8 * sparse < 4 * targets.length) {
+            final int[] keys = new int[sparse];
+            final Label[] labels = new Label[sparse];
+            int count = 0;
+            for (int c = 0; c < targets.length; c++) {
+                if (targets[c] != common) {
+                    keys[count] = c;
+                    labels[count++] = targets[c];
+                }
+            }
+            code.lookupswitch(common, keys, labels);
+        } else {
+            code.tableswitch(0, targets.length - 1, common, targets);
+        }
+    }
+
+    private static class Label {
+        private int position = -1;
+    }
+
+    private static class Code {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private final List<Label> labels = new ArrayList<>();
+        private final List<int[]> fixups = new ArrayList<>();
+
+        void op(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            op(value >>> 8);
+            op(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void load(int local) {
+            op(0x15); // iload
+            op(local);
+        }
+
+        void loadReference(int local) {
+            op(0x19); // aload
+            op(local);
+        }
+
+        void store(int local) {
+            op(0x36); // istore
+            op(local);
+        }
+
+        void push(int value, ConstantPool pool) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value); // iconst
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10); // bipush
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11); // sipush
+                u2(value);
+            } else {
+                op(0x13); // ldc_w
+                u2(pool.integer(value));
+            }
+        }
+
+        void mark(Label label) {
+            label.position = length;
+        }
+
+        void jump(int opcode, Label label) {
+            final int start = length;
+            op(opcode);
+            reference(start, label, 2);
+        }
+
+        void tableswitch(int low, int high, Label defaultLabel, Label[] targets) {
+            final int start = length;
+            op(0xaa);
+            align();
+            reference(start, defaultLabel, 4);
+            u4(low);
+            u4(high);
+            for (Label target : targets) {
+                reference(start, target, 4);
+            }
+        }
+
+        void lookupswitch(Label defaultLabel, int[] keys, Label[] targets) {
+            final int start = length;
+            op(0xab);
+            align();
+            reference(start, defaultLabel, 4);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                reference(start, targets[i], 4);
+            }
+        }
+
+        void resolve() {
+            for (int i = 0; i < labels.size(); i++) {
+                final int[] fixup = fixups.get(i);
+                final int offset = labels.get(i).position - fixup[0];
+                if (fixup[2] == 2) {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new RuntimeException("Jump is too long");
+                    }
+                    bytes[fixup[1]] = (byte) (offset >>> 8);
+                    bytes[fixup[1] + 1] = (byte) offset;
+                } else {
+                    for (int j = 0; j < 4; j++) {
+                        bytes[fixup[1] + j] = (byte) (offset >>> (24 - 8 * j));
+                    }
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void align() {
+            while (length % 4 != 0) {
+                op(0);
+            }
+        }
+
+        private void reference(int start, Label label, int size) {
+            labels.add(label);
+            fixups.add(new int[]{start, length, size});
+            for (int i = 0; i < size; i++) {
+                op(0);
+            }
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            final Integer known = indices.get("U" + value);
+            if (known != null) {
+                return known;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return register("U" + value);
+        }
+
+        int classInfo(String name) {
+            final Integer known = indices.get("C" + name);
+            if (known != null) {
+                return known;
+            }
+            final int nameIndex = utf8(name);
+            write(7, nameIndex, -1);
+            return register("C" + name);
+        }
+
+        int integer(int value) {
+            final Integer known = indices.get("I" + value);
+            if (known != null) {
+                return known;
+            }
+            try {
+                out.writeByte(3);
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return register("I" + value);
+        }
+
+        int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+            final String key = "M" + owner + "." + name + descriptor;
+            final Integer known = indices.get(key);
+            if (known != null) {
+                return known;
+            }
+            final int ownerIndex = classInfo(owner);
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            Integer nameAndType = indices.get("N" + name + descriptor);
+            if (nameAndType == null) {
+                write(12, nameIndex, descriptorIndex);
+                nameAndType = register("N" + name + descriptor);
+            }
+            write(isInterface ? 11 : 10, ownerIndex, nameAndType);
+            return register(key);
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            out.flush();
+            target.write(bytes.toByteArray());
+        }
+
+        private void write(int tag, int first, int second) {
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second != -1) {
+                    out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private int register(String key) {
+            indices.put(key, count);
+            return count++;
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        private Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
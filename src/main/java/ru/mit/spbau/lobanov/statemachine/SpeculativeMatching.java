@@ -0,0 +1,242 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Data-parallel run of a deterministic machine over one long input.
+ * The input is split into chunks, and every chunk except the first one is run from every undecided state at once,
+ * which gives the mapping from the state at the start of the chunk to the state at its end.
+ * Runs which reach the same state are merged periodically, so in a small minimized machine they quickly converge
+ * to a few runs and the chunk costs little more than a single run. The mappings are then composed in order.
+ * <p>
+ * Decided states are not tracked: a run which reaches one ends in {@link #DEAD} or {@link #ACCEPTED}.
+ */
+final class SpeculativeMatching {
+    static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int BLOCK = 256;
+    private static final int DEAD = -1;
+    private static final int ACCEPTED = -2;
+
+    private final CompiledDeterministicStateMachine<?> machine;
+    private final int[] transitions;
+    private final SymbolClasses classes;
+    private final int stride;
+    private final int statesCount;
+    private final int[] starts;
+
+    private SpeculativeMatching(CompiledDeterministicStateMachine<?> machine) {
+        this.machine = machine;
+        this.transitions = machine.getTransitions();
+        this.classes = machine.getSymbolClasses();
+        this.stride = Math.max(classes.count(), 1);
+        this.statesCount = machine.getStatesCount();
+        int count = 0;
+        final int[] starts = new int[statesCount];
+        for (int q = 0; q < statesCount; q++) {
+            if (!machine.isDead(q) && !machine.isAlwaysAccepting(q)) {
+                starts[count++] = q;
+            }
+        }
+        this.starts = Arrays.copyOf(starts, count);
+    }
+
+    static boolean accept(CompiledDeterministicStateMachine<?> machine, long length, Input input, ForkJoinPool pool,
+                          int minChunkSize) throws IOException {
+        final long chunksCount = Math.max((long) pool.getParallelism() * CHUNKS_PER_THREAD,
+                (length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        final long chunkSize = Math.max(minChunkSize, (length + chunksCount - 1) / chunksCount);
+        final int count = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        final long[] bounds = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = Math.min(length, i * chunkSize);
+        }
+        final SpeculativeMatching matching = new SpeculativeMatching(machine);
+        final int[][] mappings = new int[count][];
+        final boolean[] invalid = new boolean[count];
+        final Chunks chunks = new Chunks(matching, input, bounds, 0, count, mappings, invalid);
+        try {
+            if (count == 1) {
+                chunks.compute();
+            } else {
+                pool.invoke(chunks);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int state = mappings[0][0];
+        for (int i = 0; i < count; i++) {
+            if (invalid[i]) {
+                return StateMachineMetrics.matched(false, length, true);
+            }
+            if (i > 0 && state >= 0) {
+                state = mappings[i][state];
+            }
+        }
+        return StateMachineMetrics.matched(state == ACCEPTED || state >= 0 && machine.isTerminal(state), length, false);
+    }
+
+    /**
+     * Runs the first chunk from the initial state; the result has a single element.
+     */
+    private int[] runFirst(ByteBuffer chunk, boolean[] invalid, int index) {
+        final int[] symbols = new int[BLOCK];
+        int offset = machine.getInitialState() * stride;
+        for (int i = 0; i < chunk.limit(); i += BLOCK) {
+            final int length = Math.min(BLOCK, chunk.limit() - i);
+            if (!readClasses(chunk, i, length, symbols)) {
+                invalid[index] = true;
+                return new int[]{DEAD};
+            }
+            if (offset >= 0) {
+                offset = walk(offset, symbols, length);
+            }
+        }
+        return new int[]{decode(offset)};
+    }
+
+    private int[] run(ByteBuffer chunk, boolean[] invalid, int index) {
+        final int[] symbols = new int[BLOCK];
+        final int[] active = new int[starts.length];
+        final int[] owner = new int[starts.length];
+        for (int k = 0; k < starts.length; k++) {
+            active[k] = starts[k] * stride;
+            owner[k] = k;
+        }
+        int activeCount = starts.length;
+        final int[] merged = new int[statesCount + 2];
+        Arrays.fill(merged, -1);
+        final int[] redirect = new int[starts.length];
+        for (int i = 0; i < chunk.limit(); i += BLOCK) {
+            final int length = Math.min(BLOCK, chunk.limit() - i);
+            if (!readClasses(chunk, i, length, symbols)) {
+                invalid[index] = true;
+                return null;
+            }
+            for (int j = 0; j < activeCount; j++) {
+                if (active[j] >= 0) {
+                    active[j] = walk(active[j], symbols, length);
+                }
+            }
+            if (activeCount > 1) {
+                int mergedCount = 0;
+                for (int j = 0; j < activeCount; j++) {
+                    final int key = key(active[j]);
+                    if (merged[key] == -1) {
+                        merged[key] = mergedCount;
+                        active[mergedCount++] = active[j];
+                    }
+                    redirect[j] = merged[key];
+                }
+                for (int j = 0; j < mergedCount; j++) {
+                    merged[key(active[j])] = -1;
+                }
+                if (mergedCount < activeCount) {
+                    for (int k = 0; k < owner.length; k++) {
+                        owner[k] = redirect[owner[k]];
+                    }
+                    activeCount = mergedCount;
+                }
+            }
+        }
+        final int[] mapping = new int[statesCount];
+        for (int q = 0; q < statesCount; q++) {
+            mapping[q] = machine.isDead(q) ? DEAD : ACCEPTED;
+        }
+        for (int k = 0; k < starts.length; k++) {
+            mapping[starts[k]] = decode(active[owner[k]]);
+        }
+        return mapping;
+    }
+
+    private boolean readClasses(ByteBuffer chunk, int from, int length, int[] symbols) {
+        for (int i = 0; i < length; i++) {
+            final int symbolClass = classes.ofByte(chunk.get(from + i));
+            if (symbolClass < 0) {
+                return false;
+            }
+            symbols[i] = symbolClass;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the offset of the state after the block, or the inverted offset of the first decided state.
+     */
+    private int walk(int offset, int[] symbols, int length) {
+        final int[] transitions = this.transitions;
+        for (int i = 0; i < length; i++) {
+            offset = transitions[offset + symbols[i]];
+            if (offset < 0) {
+                return offset;
+            }
+        }
+        return offset;
+    }
+
+    private int decode(int offset) {
+        if (offset >= 0) {
+            return offset / stride;
+        }
+        return machine.isDead(~offset / stride) ? DEAD : ACCEPTED;
+    }
+
+    private int key(int offset) {
+        return offset >= 0 ? offset / stride : statesCount + (machine.isDead(~offset / stride) ? 0 : 1);
+    }
+
+    interface Input {
+        /**
+         * Returns the bytes of {@code [from, to)} as a buffer with position 0 and limit {@code to - from}.
+         */
+        ByteBuffer slice(long from, long to) throws IOException;
+    }
+
+    private static class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SpeculativeMatching matching;
+        private final Input input;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final int[][] mappings;
+        private final boolean[] invalid;
+
+        private Chunks(SpeculativeMatching matching, Input input, long[] bounds, int from, int to,
+                       int[][] mappings, boolean[] invalid) {
+            this.matching = matching;
+            this.input = input;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.mappings = mappings;
+            this.invalid = invalid;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Chunks(matching, input, bounds, from, middle, mappings, invalid),
+                        new Chunks(matching, input, bounds, middle, to, mappings, invalid));
+                return;
+            }
+            final ByteBuffer chunk;
+            try {
+                chunk = input.slice(bounds[from], bounds[from + 1]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mappings[from] = from == 0
+                    ? matching.runFirst(chunk, invalid, from)
+                    : matching.run(chunk, invalid, from);
+        }
+    }
+}
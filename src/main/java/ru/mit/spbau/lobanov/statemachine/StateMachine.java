@@ -4,7 +4,15 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 
 public interface StateMachine<L> {
-    void writeStateMachine(PrintWriter out);
+    void writeStateMachine(PrintWriter out, StateMachineWriter writer);
+
+    default void writeStateMachine(PrintWriter out) {
+        writeStateMachine(out, StateMachineWriter.DOT);
+    }
+
     @SuppressWarnings("unchecked")
     boolean accept(L... word);
+    boolean accept(CharSequence word);
+    boolean accept(char[] word, int from, int to);
+    boolean accept(byte[] word, int from, int to);
 }
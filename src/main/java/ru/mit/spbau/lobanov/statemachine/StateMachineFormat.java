@@ -0,0 +1,297 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of compiled machines. All numbers are big-endian:
+ * <pre>
+ * header     magic "SMAT", u2 version, u1 kind (1 = DFA, 2 = NFA), u1 alphabet (1 = chars, 2 = bytes),
+ *            i4 alphabet size, i4 states count, i4 classes count, i4 initial state
+ * alphabet   symbols as u2 chars or u1 bytes, then the class of every symbol as i4; padded to 8 bytes
+ * DFA        terminal, live and always accepting bitmaps as i8 words,
+ *            transitions as i4[states * classes] in the encoding of {@link CompiledDeterministicStateMachine}
+ * NFA        terminal bitmap as i8 words, i4 successors count, successors start as i4[states * classes + 1],
+ *            successors as i4[]; padded to 8 bytes
+ * trailer    CRC32 of everything before it as i4
+ * </pre>
+ * Every section starts at a multiple of 8 bytes, so a DFA can be matched directly from a mapped file.
+ */
+final class StateMachineFormat {
+    static final int MAGIC = 0x534D4154;
+    static final int VERSION = 1;
+    static final int DFA = 1;
+    static final int NFA = 2;
+    static final int CHARS = 1;
+    static final int BYTES = 2;
+    static final int HEADER_SIZE = 24;
+
+    private StateMachineFormat() {
+    }
+
+    static void write(CompiledDeterministicStateMachine<?> machine, FileChannel channel) throws IOException {
+        final int statesCount = machine.getStatesCount();
+        final SymbolClasses classes = machine.getSymbolClasses();
+        final int count = classes.count();
+        final int stride = Math.max(count, 1);
+        final int words = (statesCount + 63) >>> 6;
+        final Alphabet<?> alphabet = machine.getAlphabet();
+        final ByteBuffer buffer = allocate(deterministicSize(alphabet, statesCount, count));
+        writeHeader(buffer, DFA, alphabet, statesCount, count, machine.getInitialState());
+        writeAlphabet(buffer, alphabet, classes);
+        final long[][] bitmaps = new long[3][words];
+        for (int state = 0; state < statesCount; state++) {
+            if (machine.isTerminal(state)) {
+                bitmaps[0][state >>> 6] |= 1L << state;
+            }
+            if (!machine.isDead(state)) {
+                bitmaps[1][state >>> 6] |= 1L << state;
+            }
+            if (machine.isAlwaysAccepting(state)) {
+                bitmaps[2][state >>> 6] |= 1L << state;
+            }
+        }
+        for (long[] bitmap : bitmaps) {
+            for (long word : bitmap) {
+                buffer.putLong(word);
+            }
+        }
+        for (int state = 0; state < statesCount; state++) {
+            for (int c = 0; c < count; c++) {
+                final int target = machine.getTransition(state, classes.representative(c));
+                final boolean decided = machine.isDead(target) || machine.isAlwaysAccepting(target);
+                buffer.putInt(decided ? ~(target * stride) : target * stride);
+            }
+        }
+        pad(buffer);
+        finish(buffer, channel);
+    }
+
+    static void write(CompiledNonDeterministicStateMachine<?> machine, FileChannel channel) throws IOException {
+        final int statesCount = machine.getStatesCount();
+        final SymbolClasses classes = machine.getSymbolClasses();
+        final int count = classes.count();
+        final int words = (statesCount + 63) >>> 6;
+        final Alphabet<?> alphabet = machine.getAlphabet();
+        final int edgesCount = machine.getSuccessorsCount();
+        final ByteBuffer buffer = allocate(HEADER_SIZE + alphabetSize(alphabet) + words * 8L
+                + ((4 + ((long) statesCount * count + 1) * 4 + edgesCount * 4L) + 7 & ~7L) + 4);
+        writeHeader(buffer, NFA, alphabet, statesCount, count, machine.getInitialState());
+        writeAlphabet(buffer, alphabet, classes);
+        final long[] terminals = new long[words];
+        for (int state = 0; state < statesCount; state++) {
+            if (machine.isTerminal(state)) {
+                terminals[state >>> 6] |= 1L << state;
+            }
+        }
+        for (long word : terminals) {
+            buffer.putLong(word);
+        }
+        buffer.putInt(edgesCount);
+        for (int state = 0; state < statesCount; state++) {
+            for (int c = 0; c < count; c++) {
+                buffer.putInt(machine.successorsStart(state, c));
+            }
+        }
+        buffer.putInt(edgesCount);
+        for (int i = 0; i < edgesCount; i++) {
+            buffer.putInt(machine.successor(i));
+        }
+        pad(buffer);
+        finish(buffer, channel);
+    }
+
+    /**
+     * Checks the header and the checksum of a whole file and returns the kind of the machine in it.
+     */
+    static int check(ByteBuffer buffer) {
+        checkHeader(buffer);
+        final CRC32 crc = new CRC32();
+        final ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(buffer.limit() - 4);
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new RuntimeException("State machine file is corrupted: checksum mismatch");
+        }
+        return buffer.get(6);
+    }
+
+    /**
+     * Checks only the header, so no page after the first one is read, and returns the kind of the machine.
+     */
+    static int checkHeader(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE + 4 || buffer.getInt(0) != MAGIC) {
+            throw new RuntimeException("Not a state machine file");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new RuntimeException("Unsupported state machine file version " + buffer.getShort(4));
+        }
+        final int kind = buffer.get(6);
+        final int alphabet = buffer.get(7);
+        if (kind != DFA && kind != NFA || alphabet != CHARS && alphabet != BYTES) {
+            throw new RuntimeException("State machine file is corrupted: bad header");
+        }
+        return kind;
+    }
+
+    /**
+     * Returns the size of a file with a deterministic machine, as written by {@link #write}.
+     */
+    static long deterministicSize(Alphabet<?> alphabet, int statesCount, int classesCount) {
+        final long words = (statesCount + 63) >>> 6;
+        return HEADER_SIZE + alphabetSize(alphabet) + 3 * words * 8
+                + ((long) statesCount * classesCount * 4 + 7 & ~7L) + 4;
+    }
+
+    static int statesCount(ByteBuffer buffer) {
+        return buffer.getInt(12);
+    }
+
+    static int classesCount(ByteBuffer buffer) {
+        return buffer.getInt(16);
+    }
+
+    static int initialState(ByteBuffer buffer) {
+        return buffer.getInt(20);
+    }
+
+    static Alphabet<?> readAlphabet(ByteBuffer buffer) {
+        final int size = buffer.getInt(8);
+        if (buffer.get(7) == CHARS) {
+            final char[] symbols = new char[size];
+            for (int i = 0; i < size; i++) {
+                symbols[i] = buffer.getChar(HEADER_SIZE + 2 * i);
+            }
+            return new SimpleAlphabet(new String(symbols));
+        }
+        final byte[] symbols = new byte[size];
+        for (int i = 0; i < size; i++) {
+            symbols[i] = buffer.get(HEADER_SIZE + i);
+        }
+        return new ByteAlphabet(symbols);
+    }
+
+    static SymbolClasses readClasses(ByteBuffer buffer, Alphabet<?> alphabet) {
+        final int size = alphabet.size();
+        final int start = HEADER_SIZE + symbolsSize(alphabet);
+        final int[] classOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            classOf[i] = buffer.getInt(start + 4 * i);
+        }
+        return SymbolClasses.of(alphabet, classOf, classesCount(buffer));
+    }
+
+    /**
+     * Returns the offset of the first section after the alphabet.
+     */
+    static int bodyOffset(Alphabet<?> alphabet) {
+        return HEADER_SIZE + alphabetSize(alphabet);
+    }
+
+    static CompiledNonDeterministicStateMachine<?> readNonDeterministic(ByteBuffer buffer) {
+        final Alphabet<?> alphabet = readAlphabet(buffer);
+        final SymbolClasses classes = readClasses(buffer, alphabet);
+        final int statesCount = statesCount(buffer);
+        final int words = (statesCount + 63) >>> 6;
+        final ByteBuffer body = buffer.duplicate();
+        body.position(bodyOffset(alphabet));
+        final long[] terminals = new long[words];
+        body.asLongBuffer().get(terminals);
+        body.position(body.position() + words * 8);
+        final int edgesCount = body.getInt();
+        final int[] successorsStart = new int[statesCount * classes.count() + 1];
+        body.asIntBuffer().get(successorsStart);
+        body.position(body.position() + successorsStart.length * 4);
+        final int[] successors = new int[edgesCount];
+        body.asIntBuffer().get(successors);
+        return create(alphabet, classes, statesCount, successorsStart, successors, terminals, initialState(buffer));
+    }
+
+    private static <L> CompiledNonDeterministicStateMachine<L> create(Alphabet<L> alphabet, SymbolClasses classes,
+                                                                     int statesCount, int[] successorsStart,
+                                                                     int[] successors, long[] terminals,
+                                                                     int initialState) {
+        return new CompiledNonDeterministicStateMachine<>(alphabet, classes, statesCount, successorsStart, successors,
+                terminals, initialState);
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int kind, Alphabet<?> alphabet, int statesCount,
+                                    int classesCount, int initialState) {
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.put((byte) kind);
+        buffer.put((byte) alphabetKind(alphabet));
+        buffer.putInt(alphabet.size());
+        buffer.putInt(statesCount);
+        buffer.putInt(classesCount);
+        buffer.putInt(initialState);
+    }
+
+    private static void writeAlphabet(ByteBuffer buffer, Alphabet<?> alphabet, SymbolClasses classes) {
+        final int size = alphabet.size();
+        for (int i = 0; i < size; i++) {
+            if (alphabet instanceof CharAlphabet) {
+                buffer.putChar(((CharAlphabet) alphabet).getSymbol(i));
+            } else {
+                buffer.put(((ByteAlphabet) alphabet).getSymbol(i));
+            }
+        }
+        pad(buffer);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(classes.ofIndex(i));
+        }
+        pad(buffer);
+    }
+
+    private static void finish(ByteBuffer buffer, FileChannel channel) throws IOException {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer content = buffer.duplicate();
+        content.flip();
+        crc.update(content);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int alphabetKind(Alphabet<?> alphabet) {
+        if (alphabet instanceof CharAlphabet) {
+            return CHARS;
+        }
+        if (alphabet instanceof ByteAlphabet) {
+            return BYTES;
+        }
+        throw new RuntimeException("Only char and byte alphabets can be serialized");
+    }
+
+    /**
+     * Allocates the buffer of a whole file; files are written from a single heap buffer, so they are limited to 2 GB.
+     */
+    private static ByteBuffer allocate(long size) {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("State machine is too large to be written: " + size + " bytes");
+        }
+        return ByteBuffer.allocate((int) size);
+    }
+
+    private static int symbolsSize(Alphabet<?> alphabet) {
+        return align(alphabetKind(alphabet) == CHARS ? 2 * alphabet.size() : alphabet.size());
+    }
+
+    private static int alphabetSize(Alphabet<?> alphabet) {
+        return symbolsSize(alphabet) + align(4 * alphabet.size());
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static void pad(ByteBuffer buffer) {
+        while (buffer.position() % 8 != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+}
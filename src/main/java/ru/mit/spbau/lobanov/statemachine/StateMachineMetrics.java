@@ -0,0 +1,213 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Optional instrumentation of constructions and matching, enabled with {@code -Dstatemachine.metrics=true}.
+ * The flag is a static final constant, so when it is off the JIT removes every call site and metrics cost nothing.
+ * When it is on, counters are exposed through JMX and statistics of every construction are passed to listeners.
+ * Matches are counted by every frozen machine, including batch and parallel runs; exceptions thrown by listeners
+ * are ignored.
+ */
+public final class StateMachineMetrics {
+    public static final boolean ENABLED = Boolean.getBoolean("statemachine.metrics");
+
+    /**
+     * Lazy machines publish cache hits in batches of this size, so a hit costs no more than a counter increment.
+     */
+    static final int LAZY_HITS_BATCH = 4096;
+
+    private static final LongAdder matches = new LongAdder();
+    private static final LongAdder symbols = new LongAdder();
+    private static final LongAdder earlyRejections = new LongAdder();
+    private static final LongAdder lazyCacheHits = new LongAdder();
+    private static final LongAdder lazyCacheMisses = new LongAdder();
+    private static final LongAdder constructions = new LongAdder();
+    private static final LongAdder constructionNanos = new LongAdder();
+    private static volatile ConstructionStats lastConstruction;
+    private static final List<ConstructionListener> listeners = new CopyOnWriteArrayList<>();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                        new ObjectName("ru.mit.spbau.lobanov.statemachine:type=StateMachineMetrics"));
+            } catch (JMException ignored) {
+                // already registered by another class loader
+            }
+        }
+    }
+
+    private StateMachineMetrics() {
+    }
+
+    public static void addListener(ConstructionListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(ConstructionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static StateMachineMetricsMXBean getCounters() {
+        return new Bean();
+    }
+
+    /**
+     * Records a finished match and returns its result, so it can wrap return statements of run loops.
+     */
+    static boolean matched(boolean result, long symbolsCount, boolean early) {
+        if (ENABLED) {
+            matches.increment();
+            symbols.add(symbolsCount);
+            if (early) {
+                earlyRejections.increment();
+            }
+        }
+        return result;
+    }
+
+    static void lazyCacheHits(long count) {
+        if (ENABLED) {
+            lazyCacheHits.add(count);
+        }
+    }
+
+    static void lazyCacheMiss() {
+        if (ENABLED) {
+            lazyCacheMisses.increment();
+        }
+    }
+
+    /**
+     * Starts measuring a construction, returns null if metrics are disabled.
+     */
+    static Construction start(ConstructionStats.Operation operation, int inputStatesCount,
+                              long inputTransitionsCount) {
+        return ENABLED ? new Construction(operation, inputStatesCount, inputTransitionsCount) : null;
+    }
+
+    /**
+     * Publishes statistics of the finished construction; does nothing if metrics are disabled.
+     */
+    static void finish(Construction construction, int statesCount, long transitionsCount) {
+        if (construction == null) {
+            return;
+        }
+        final long nanos = System.nanoTime() - construction.start;
+        final long allocated = construction.allocatedAtStart == -1
+                ? -1 : allocatedBytes() - construction.allocatedAtStart;
+        final ConstructionStats stats = new ConstructionStats(construction.operation,
+                construction.inputStatesCount, construction.inputTransitionsCount, statesCount,
+                transitionsCount, nanos, allocated);
+        constructions.increment();
+        constructionNanos.add(nanos);
+        lastConstruction = stats;
+        for (ConstructionListener listener : listeners) {
+            try {
+                listener.onConstruction(stats);
+            } catch (RuntimeException ignored) {
+                // a failing listener must not break the construction it observes
+            }
+        }
+    }
+
+    static void progress(ConstructionStats.Operation operation, int statesCount) {
+        if (ENABLED) {
+            for (ConstructionListener listener : listeners) {
+                try {
+                    listener.onProgress(operation, statesCount);
+                } catch (RuntimeException ignored) {
+                    // see finish
+                }
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean extended = (com.sun.management.ThreadMXBean) threads;
+            if (extended.isThreadAllocatedMemorySupported() && extended.isThreadAllocatedMemoryEnabled()) {
+                return extended.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    static class Construction {
+        private final ConstructionStats.Operation operation;
+        private final int inputStatesCount;
+        private final long inputTransitionsCount;
+        private final long start = System.nanoTime();
+        private final long allocatedAtStart = allocatedBytes();
+
+        private Construction(ConstructionStats.Operation operation, int inputStatesCount,
+                             long inputTransitionsCount) {
+            this.operation = operation;
+            this.inputStatesCount = inputStatesCount;
+            this.inputTransitionsCount = inputTransitionsCount;
+        }
+    }
+
+    private static class Bean implements StateMachineMetricsMXBean {
+        @Override
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        @Override
+        public long getSymbols() {
+            return symbols.sum();
+        }
+
+        @Override
+        public long getEarlyRejections() {
+            return earlyRejections.sum();
+        }
+
+        @Override
+        public long getLazyCacheHits() {
+            return lazyCacheHits.sum();
+        }
+
+        @Override
+        public long getLazyCacheMisses() {
+            return lazyCacheMisses.sum();
+        }
+
+        @Override
+        public long getConstructions() {
+            return constructions.sum();
+        }
+
+        @Override
+        public long getConstructionNanos() {
+            return constructionNanos.sum();
+        }
+
+        @Override
+        public String getLastConstruction() {
+            final ConstructionStats stats = lastConstruction;
+            return stats == null ? null : stats.toString();
+        }
+
+        @Override
+        public void reset() {
+            matches.reset();
+            symbols.reset();
+            earlyRejections.reset();
+            lazyCacheHits.reset();
+            lazyCacheMisses.reset();
+            constructions.reset();
+            constructionNanos.reset();
+            lastConstruction = null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+/**
+ * Counters of {@link StateMachineMetrics}, registered as
+ * {@code ru.mit.spbau.lobanov.statemachine:type=StateMachineMetrics}.
+ */
+public interface StateMachineMetricsMXBean {
+    long getMatches();
+
+    long getSymbols();
+
+    long getEarlyRejections();
+
+    long getLazyCacheHits();
+
+    long getLazyCacheMisses();
+
+    long getConstructions();
+
+    long getConstructionNanos();
+
+    String getLastConstruction();
+
+    void reset();
+}
@@ -0,0 +1,131 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Holds the current version of a frozen machine and lets it be replaced while other threads are matching.
+ * Readers take the current snapshot with a single volatile read and never block; a word is always matched
+ * by one version from start to end, even if a swap happens in the middle.
+ * <p>
+ * Rebuilds are ordered by the moment they are started: the result of a rebuild is dropped
+ * if a later rebuild or an explicit swap has already been published.
+ */
+public class StateMachineRegistry<L> implements StateMachine<L> {
+    private final AtomicReference<Snapshot<L>> current;
+    private final AtomicLong tickets = new AtomicLong();
+
+    public StateMachineRegistry(@NotNull FrozenStateMachine<L> machine) {
+        current = new AtomicReference<>(new Snapshot<>(machine, 0, 0));
+    }
+
+    public FrozenStateMachine<L> get() {
+        return current.get().machine;
+    }
+
+    /**
+     * Returns the number of swaps performed so far.
+     */
+    public long getVersion() {
+        return current.get().version;
+    }
+
+    /**
+     * Publishes the machine and returns the previous one,
+     * or null if a swap started later has been published concurrently and this one was dropped.
+     */
+    public FrozenStateMachine<L> swap(@NotNull FrozenStateMachine<L> machine) {
+        return publish(machine, tickets.incrementAndGet());
+    }
+
+    /**
+     * Publishes the machine only if the current one is {@code expected}.
+     */
+    public boolean compareAndSwap(@NotNull FrozenStateMachine<L> expected, @NotNull FrozenStateMachine<L> machine) {
+        final long ticket = tickets.incrementAndGet();
+        while (true) {
+            final Snapshot<L> snapshot = current.get();
+            if (snapshot.machine != expected) {
+                return false;
+            }
+            if (current.compareAndSet(snapshot, new Snapshot<>(machine, snapshot.version + 1, ticket))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Builds the next version on the executor and publishes it, unless a newer version has been published first.
+     * The future completes with true if the built machine was published.
+     */
+    public CompletableFuture<Boolean> rebuild(@NotNull Supplier<? extends FrozenStateMachine<L>> builder,
+                                              @NotNull Executor executor) {
+        final long ticket = tickets.incrementAndGet();
+        return CompletableFuture.supplyAsync(builder, executor)
+                .thenApply(machine -> publish(machine, ticket) != null);
+    }
+
+    private FrozenStateMachine<L> publish(FrozenStateMachine<L> machine, long ticket) {
+        while (true) {
+            final Snapshot<L> snapshot = current.get();
+            if (snapshot.ticket > ticket) {
+                return null;
+            }
+            if (current.compareAndSet(snapshot, new Snapshot<>(machine, snapshot.version + 1, ticket))) {
+                return snapshot.machine;
+            }
+        }
+    }
+
+    @Override
+    @SafeVarargs
+    @SuppressWarnings("varargs") // the word is only read by the delegate
+    public final boolean accept(L... word) {
+        return get().accept(word);
+    }
+
+    @Override
+    public boolean accept(CharSequence word) {
+        return get().accept(word);
+    }
+
+    @Override
+    public boolean accept(char[] word, int from, int to) {
+        return get().accept(word, from, to);
+    }
+
+    @Override
+    public boolean accept(byte[] word, int from, int to) {
+        return get().accept(word, from, to);
+    }
+
+    /**
+     * Returns a matcher of the current version; it keeps matching with that version after a swap.
+     */
+    public Matcher matcher() {
+        return get().matcher();
+    }
+
+    @Override
+    public void writeStateMachine(PrintWriter out, StateMachineWriter writer) {
+        get().writeStateMachine(out, writer);
+    }
+
+    private static class Snapshot<L> {
+        private final FrozenStateMachine<L> machine;
+        private final long version;
+        private final long ticket;
+
+        private Snapshot(FrozenStateMachine<L> machine, long version, long ticket) {
+            this.machine = machine;
+            this.version = version;
+            this.ticket = ticket;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Streaming export of machines. Edges of a state are grouped by target with primitive buffers,
+ * runs of at least three consecutive chars are written as ranges ({@code a-z}),
+ * and the output is assembled in a reusable buffer which is flushed in large chunks.
+ * <p>
+ * If the machine has more states than {@code maxStates}, only the states first reached by
+ * a breadth-first search from the initial state are written, together with the edges between them.
+ * <p>
+ * Formats:
+ * <pre>
+ * DOT      Graphviz digraph
+ * TSV      "state\tid\tterminal\tlabel", "initial\tid" and "edge\tfrom\tto\tsymbols" rows
+ * GRAPHML  GraphML graph with "label", "terminal" and "initial" node data and "symbols" edge data
+ * </pre>
+ */
+public final class StateMachineWriter {
+    public static final StateMachineWriter DOT = new StateMachineWriter(Format.DOT);
+    public static final StateMachineWriter TSV = new StateMachineWriter(Format.TSV);
+    public static final StateMachineWriter GRAPHML = new StateMachineWriter(Format.GRAPHML);
+
+    private static final int FLUSH_THRESHOLD = 1 << 13;
+
+    public enum Format {
+        DOT, TSV, GRAPHML
+    }
+
+    @NotNull
+    private final Format format;
+    private final int maxStates;
+
+    public StateMachineWriter(@NotNull Format format) {
+        this(format, Integer.MAX_VALUE);
+    }
+
+    public StateMachineWriter(@NotNull Format format, int maxStates) {
+        if (maxStates < 0) {
+            throw new RuntimeException("Negative states limit: " + maxStates);
+        }
+        this.format = format;
+        this.maxStates = maxStates;
+    }
+
+    @NotNull
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    @NotNull
+    public StateMachineWriter withMaxStates(int maxStates) {
+        return new StateMachineWriter(format, maxStates);
+    }
+
+    /**
+     * Writes targets of the transitions of {@code state} by {@code symbol} to {@code buffer}
+     * and returns their count. The buffer can hold any number of distinct states.
+     */
+    interface Targets {
+        int targets(int state, int symbol, int[] buffer);
+    }
+
+    static Source deterministic(Alphabet<?> alphabet, int statesCount, int initialState,
+                                IntPredicate terminals, IntFunction<String> labels, IntBinaryOperator transitions) {
+        return new Source(alphabet, statesCount, initialState, terminals, labels, (state, symbol, buffer) -> {
+            final int target = transitions.applyAsInt(state, symbol);
+            if (target < 0) {
+                return 0;
+            }
+            buffer[0] = target;
+            return 1;
+        });
+    }
+
+    static Source nonDeterministic(Alphabet<?> alphabet, int statesCount, int initialState,
+                                   IntPredicate terminals, IntFunction<String> labels, Targets targets) {
+        return new Source(alphabet, statesCount, initialState, terminals, labels, targets);
+    }
+
+    /**
+     * Read-only view of a machine, states are numbered from 0 and the initial state is -1 if it's unset.
+     */
+    static final class Source {
+        private final Alphabet<?> alphabet;
+        private final int statesCount;
+        private final int initialState;
+        private final IntPredicate terminals;
+        private final IntFunction<String> labels;
+        private final Targets targets;
+
+        private Source(Alphabet<?> alphabet, int statesCount, int initialState, IntPredicate terminals,
+                       IntFunction<String> labels, Targets targets) {
+            this.alphabet = alphabet;
+            this.statesCount = statesCount;
+            this.initialState = initialState;
+            this.terminals = terminals;
+            this.labels = labels;
+            this.targets = targets;
+        }
+    }
+
+    void write(Source source, PrintWriter out) {
+        new Export(source, out).run();
+    }
+
+    private class Export {
+        private final Source source;
+        private final PrintWriter out;
+        private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD * 2);
+        private char[] chars = new char[FLUSH_THRESHOLD * 2];
+        private final int[] targets;
+        private final int[] stamps;
+        private final int[] heads;
+        private final int[] tails;
+        private final int[] groups;
+        private final String[] symbols;
+        private final boolean[] successors;
+        private int[] entrySymbols = new int[16];
+        private int[] entryNext = new int[16];
+
+        private Export(Source source, PrintWriter out) {
+            this.source = source;
+            this.out = out;
+            final int statesCount = source.statesCount;
+            targets = new int[statesCount];
+            stamps = new int[statesCount];
+            heads = new int[statesCount];
+            tails = new int[statesCount];
+            groups = new int[statesCount];
+            symbols = new String[source.alphabet.size()];
+            successors = successors(source.alphabet);
+            Arrays.fill(stamps, -1);
+        }
+
+        void run() {
+            final int[] order = order();
+            final boolean[] written = new boolean[source.statesCount];
+            for (int state : order) {
+                written[state] = true;
+            }
+            final int initialState = source.initialState;
+            final boolean hasInitial = initialState >= 0 && initialState < source.statesCount
+                    && written[initialState];
+            header();
+            for (int state : order) {
+                state(state, hasInitial && state == initialState);
+            }
+            if (format == Format.DOT) {
+                buffer.append("SPACE [color=white][label=\"\"];\n");
+            }
+            for (int state : order) {
+                edges(state, written);
+            }
+            if (hasInitial) {
+                initial(initialState);
+            }
+            footer();
+            drain();
+            out.flush();
+        }
+
+        /**
+         * Returns the states to write: all of them in order of numbers, or the first {@code maxStates}
+         * states in order of breadth-first search if the machine is larger.
+         */
+        private int[] order() {
+            final int statesCount = source.statesCount;
+            if (statesCount <= maxStates) {
+                final int[] order = new int[statesCount];
+                Arrays.setAll(order, i -> i);
+                return order;
+            }
+            final int[] order = new int[maxStates];
+            if (maxStates == 0) {
+                return order;
+            }
+            final boolean[] visited = new boolean[statesCount];
+            int size = 0;
+            int next = 0;
+            int head = 0;
+            final int root = source.initialState >= 0 ? source.initialState : 0;
+            visited[root] = true;
+            order[size++] = root;
+            final int alphabetSize = source.alphabet.size();
+            while (size < maxStates) {
+                if (head == size) {
+                    while (visited[next]) {
+                        next++;
+                    }
+                    visited[next] = true;
+                    order[size++] = next;
+                }
+                final int state = order[head++];
+                for (int s = 0; s < alphabetSize && size < maxStates; s++) {
+                    final int count = source.targets.targets(state, s, targets);
+                    for (int i = 0; i < count && size < maxStates; i++) {
+                        if (!visited[targets[i]]) {
+                            visited[targets[i]] = true;
+                            order[size++] = targets[i];
+                        }
+                    }
+                }
+            }
+            return order;
+        }
+
+        private void header() {
+            switch (format) {
+                case DOT:
+                    buffer.append("digraph dsm {\n");
+                    break;
+                case TSV:
+                    break;
+                case GRAPHML:
+                    buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                            .append("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n")
+                            .append("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n")
+                            .append("  <key id=\"terminal\" for=\"node\" attr.name=\"terminal\" attr.type=\"boolean\"/>\n")
+                            .append("  <key id=\"initial\" for=\"node\" attr.name=\"initial\" attr.type=\"boolean\"/>\n")
+                            .append("  <key id=\"symbols\" for=\"edge\" attr.name=\"symbols\" attr.type=\"string\"/>\n")
+                            .append("  <graph id=\"dsm\" edgedefault=\"directed\">\n");
+                    break;
+            }
+        }
+
+        private void state(int state, boolean isInitial) {
+            final boolean isTerminal = source.terminals.test(state);
+            final String label = source.labels.apply(state);
+            switch (format) {
+                case DOT:
+                    buffer.append("    S").append(state).append(" [label=\"");
+                    escape(label);
+                    buffer.append("\"][shape=").append(isTerminal ? "double" : "").append("circle];\n");
+                    break;
+                case TSV:
+                    buffer.append("state\t").append(state).append('\t').append(isTerminal ? 1 : 0).append('\t');
+                    escape(label);
+                    buffer.append('\n');
+                    break;
+                case GRAPHML:
+                    buffer.append("    <node id=\"S").append(state).append("\"><data key=\"label\">");
+                    escape(label);
+                    buffer.append("</data>");
+                    if (isTerminal) {
+                        buffer.append("<data key=\"terminal\">true</data>");
+                    }
+                    if (isInitial) {
+                        buffer.append("<data key=\"initial\">true</data>");
+                    }
+                    buffer.append("</node>\n");
+                    break;
+            }
+            flushIfFull();
+        }
+
+        /**
+         * Groups the transitions of the state by target: symbols of every target form a linked list
+         * in the entry arrays, stamps mark the targets which already have a list.
+         */
+        private void edges(int state, boolean[] written) {
+            final int alphabetSize = source.alphabet.size();
+            int groupsCount = 0;
+            int entriesCount = 0;
+            for (int s = 0; s < alphabetSize; s++) {
+                final int count = source.targets.targets(state, s, targets);
+                for (int i = 0; i < count; i++) {
+                    final int target = targets[i];
+                    if (!written[target]) {
+                        continue;
+                    }
+                    if (entriesCount == entrySymbols.length) {
+                        entrySymbols = Arrays.copyOf(entrySymbols, entriesCount * 2);
+                        entryNext = Arrays.copyOf(entryNext, entriesCount * 2);
+                    }
+                    entrySymbols[entriesCount] = s;
+                    entryNext[entriesCount] = -1;
+                    if (stamps[target] != state) {
+                        stamps[target] = state;
+                        heads[target] = entriesCount;
+                        groups[groupsCount++] = target;
+                    } else {
+                        entryNext[tails[target]] = entriesCount;
+                    }
+                    tails[target] = entriesCount++;
+                }
+            }
+            for (int g = 0; g < groupsCount; g++) {
+                edge(state, groups[g]);
+            }
+        }
+
+        private void edge(int from, int to) {
+            switch (format) {
+                case DOT:
+                    buffer.append("    S").append(from).append(" -> S").append(to).append(" [label = \"");
+                    symbols(heads[to]);
+                    buffer.append("\"];\n");
+                    break;
+                case TSV:
+                    buffer.append("edge\t").append(from).append('\t').append(to).append('\t');
+                    symbols(heads[to]);
+                    buffer.append('\n');
+                    break;
+                case GRAPHML:
+                    buffer.append("    <edge source=\"S").append(from).append("\" target=\"S").append(to)
+                            .append("\"><data key=\"symbols\">");
+                    symbols(heads[to]);
+                    buffer.append("</data></edge>\n");
+                    break;
+            }
+            flushIfFull();
+        }
+
+        /**
+         * Writes the symbols of the list, runs of at least three symbols which are neighbours both
+         * in the alphabet and in the char code order are written as ranges.
+         */
+        private void symbols(int entry) {
+            boolean first = true;
+            while (entry != -1) {
+                int last = entry;
+                int length = 1;
+                while (entryNext[last] != -1 && entrySymbols[entryNext[last]] == entrySymbols[last] + 1
+                        && successors[entrySymbols[last]]) {
+                    last = entryNext[last];
+                    length++;
+                }
+                if (!first) {
+                    buffer.append(',');
+                }
+                first = false;
+                if (length >= 3) {
+                    symbol(entrySymbols[entry]);
+                    buffer.append('-');
+                    symbol(entrySymbols[last]);
+                    entry = entryNext[last];
+                } else {
+                    symbol(entrySymbols[entry]);
+                    entry = entryNext[entry];
+                }
+            }
+        }
+
+        /**
+         * Marks the symbols which are followed in the alphabet by the next char.
+         */
+        private boolean[] successors(Alphabet<?> alphabet) {
+            final boolean[] result = new boolean[alphabet.size()];
+            for (int i = 0; i + 1 < alphabet.size(); i++) {
+                final String symbol = String.valueOf(alphabet.getSymbol(i));
+                final String next = String.valueOf(alphabet.getSymbol(i + 1));
+                result[i] = symbol.length() == 1 && next.length() == 1 && next.charAt(0) == symbol.charAt(0) + 1;
+            }
+            return result;
+        }
+
+        private void symbol(int index) {
+            String symbol = symbols[index];
+            if (symbol == null) {
+                final int start = buffer.length();
+                escape(String.valueOf(source.alphabet.getSymbol(index)));
+                symbol = buffer.substring(start);
+                symbols[index] = symbol;
+            } else {
+                buffer.append(symbol);
+            }
+        }
+
+        private void initial(int state) {
+            switch (format) {
+                case DOT:
+                    buffer.append("SPACE -> S").append(state).append(";\n");
+                    break;
+                case TSV:
+                    buffer.append("initial\t").append(state).append('\n');
+                    break;
+                case GRAPHML:
+                    break;
+            }
+        }
+
+        private void footer() {
+            switch (format) {
+                case DOT:
+                    buffer.append("}\n");
+                    break;
+                case TSV:
+                    break;
+                case GRAPHML:
+                    buffer.append("  </graph>\n</graphml>\n");
+                    break;
+            }
+        }
+
+        private void escape(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                switch (format) {
+                    case DOT:
+                        if (c == '"' || c == '\\') {
+                            buffer.append('\\');
+                        }
+                        buffer.append(c);
+                        break;
+                    case TSV:
+                        if (c == '\t') {
+                            buffer.append("\\t");
+                        } else if (c == '\n') {
+                            buffer.append("\\n");
+                        } else if (c == '\\') {
+                            buffer.append("\\\\");
+                        } else {
+                            buffer.append(c);
+                        }
+                        break;
+                    case GRAPHML:
+                        if (c == '<') {
+                            buffer.append("&lt;");
+                        } else if (c == '>') {
+                            buffer.append("&gt;");
+                        } else if (c == '&') {
+                            buffer.append("&amp;");
+                        } else if (c == '"') {
+                            buffer.append("&quot;");
+                        } else {
+                            buffer.append(c);
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void flushIfFull() {
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            final int length = buffer.length();
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            buffer.getChars(0, length, chars, 0);
+            out.write(chars, 0, length);
+            buffer.setLength(0);
+        }
+    }
+}
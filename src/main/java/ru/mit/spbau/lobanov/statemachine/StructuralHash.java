@@ -0,0 +1,83 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 of a fixed big-endian encoding of a machine, fed through a small buffer.
+ * Equal hashes mean equal alphabets, state numbering, terminal states, edges and initial state;
+ * labels are not hashed.
+ */
+final class StructuralHash {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 13);
+
+    StructuralHash(char kind, Alphabet<?> alphabet, int statesCount, int initialState) {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+        putInt(kind);
+        if (alphabet != null) {
+            putInt(alphabet.size());
+            for (int i = 0; i < alphabet.size(); i++) {
+                putString(String.valueOf(alphabet.getSymbol(i)));
+            }
+        }
+        putInt(statesCount);
+        putInt(initialState);
+    }
+
+    /**
+     * Returns the hash of the strings, used to combine an operation with the hashes of its arguments.
+     */
+    static String of(String... parts) {
+        final StructuralHash hash = new StructuralHash('K', null, parts.length, 0);
+        for (String part : parts) {
+            hash.putString(part);
+        }
+        return hash.finish();
+    }
+
+    void putInt(int value) {
+        if (buffer.remaining() < 4) {
+            drain();
+        }
+        buffer.putInt(value);
+    }
+
+    void putBoolean(boolean value) {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    private void putString(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        drain();
+        digest.update(bytes);
+    }
+
+    private void drain() {
+        digest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    String finish() {
+        drain();
+        final byte[] bytes = digest.digest();
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = DIGITS[(bytes[i] >>> 4) & 0xF];
+            hex[2 * i + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,191 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partition of an alphabet into classes of symbols which behave identically in every state of a machine.
+ * Classes are numbered in order of their first symbol, so iterating classes in order visits targets in
+ * the same order as iterating symbols. Chars and bytes of char and byte alphabets are mapped to classes by
+ * a single table lookup, symbols of other alphabets are looked up through {@link Alphabet#getIndex}.
+ */
+final class SymbolClasses {
+    private final Alphabet<?> alphabet;
+    private final int[] classOf;
+    private final int[] representatives;
+    private final int[] charClasses;
+    private final int[] byteClasses;
+
+    private SymbolClasses(Alphabet<?> alphabet, int[] classOf, int count) {
+        this.alphabet = alphabet;
+        this.classOf = classOf;
+        representatives = new int[count];
+        Arrays.fill(representatives, -1);
+        for (int s = classOf.length - 1; s >= 0; s--) {
+            representatives[classOf[s]] = s;
+        }
+        final int limit = alphabet.charIndexLimit();
+        if (limit > 0) {
+            charClasses = new int[limit];
+            for (int c = 0; c < limit; c++) {
+                charClasses[c] = ofIndex(alphabet.getCharIndex((char) c));
+            }
+            byteClasses = new int[256];
+            for (int b = 0; b < 256; b++) {
+                byteClasses[b] = ofIndex(alphabet.getByteIndex((byte) b));
+            }
+        } else {
+            charClasses = null;
+            byteClasses = null;
+        }
+    }
+
+    static SymbolClasses compute(Alphabet<?> alphabet, Columns columns) {
+        final int size = alphabet.size();
+        final long[] hashes = new long[size];
+        final Map<Long, List<Integer>> groups = new HashMap<>();
+        for (int s = 0; s < size; s++) {
+            hashes[s] = columns.hash(s);
+            groups.computeIfAbsent(hashes[s], hash -> new ArrayList<>()).add(s);
+        }
+        final int[] classOf = new int[size];
+        Arrays.fill(classOf, -1);
+        int count = 0;
+        for (int s = 0; s < size; s++) {
+            if (classOf[s] != -1) {
+                continue;
+            }
+            classOf[s] = count;
+            for (int t : groups.get(hashes[s])) {
+                if (t > s && classOf[t] == -1 && columns.equal(s, t)) {
+                    classOf[t] = count;
+                }
+            }
+            count++;
+        }
+        return new SymbolClasses(alphabet, classOf, count);
+    }
+
+    static SymbolClasses of(Alphabet<?> alphabet, int[] classOf, int count) {
+        return new SymbolClasses(alphabet, classOf, count);
+    }
+
+    static SymbolClasses forTable(Alphabet<?> alphabet, int statesCount, int[] targets) {
+        final int size = alphabet.size();
+        return compute(alphabet, new Columns() {
+            @Override
+            public long hash(int symbol) {
+                long hash = 0;
+                for (int q = 0; q < statesCount; q++) {
+                    hash = hash * 1_000_000_007L + targets[q * size + symbol];
+                }
+                return hash;
+            }
+
+            @Override
+            public boolean equal(int a, int b) {
+                for (int q = 0; q < statesCount; q++) {
+                    if (targets[q * size + a] != targets[q * size + b]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns the common refinement of two partitions of the same alphabet.
+     */
+    static SymbolClasses join(Alphabet<?> alphabet, SymbolClasses first, SymbolClasses second) {
+        return compute(alphabet, new Columns() {
+            @Override
+            public long hash(int symbol) {
+                return first.ofIndex(symbol) * 1_000_000_007L + second.ofIndex(symbol);
+            }
+
+            @Override
+            public boolean equal(int a, int b) {
+                return first.ofIndex(a) == first.ofIndex(b) && second.ofIndex(a) == second.ofIndex(b);
+            }
+        });
+    }
+
+    int count() {
+        return representatives.length;
+    }
+
+    int representative(int symbolClass) {
+        return representatives[symbolClass];
+    }
+
+    int ofIndex(int symbolIndex) {
+        return symbolIndex < 0 ? -1 : classOf[symbolIndex];
+    }
+
+    int ofChar(char symbol) {
+        if (charClasses == null) {
+            return ofIndex(alphabet.getCharIndex(symbol));
+        }
+        return symbol < charClasses.length ? charClasses[symbol] : -1;
+    }
+
+    int ofByte(byte symbol) {
+        if (byteClasses == null) {
+            return ofIndex(alphabet.getByteIndex(symbol));
+        }
+        return byteClasses[symbol & 0xFF];
+    }
+
+    /**
+     * Returns the table of classes of chars; for alphabets which aren't indexed by chars a new table
+     * over all chars is built.
+     */
+    int[] charClasses() {
+        if (charClasses == null) {
+            final int[] table = new int[Character.MAX_VALUE + 1];
+            for (int c = 0; c < table.length; c++) {
+                table[c] = ofChar((char) c);
+            }
+            return table;
+        }
+        return charClasses;
+    }
+
+    /**
+     * Same as {@link #charClasses()} for bytes.
+     */
+    int[] byteClasses() {
+        if (byteClasses == null) {
+            final int[] table = new int[256];
+            for (int b = 0; b < table.length; b++) {
+                table[b] = ofByte((byte) b);
+            }
+            return table;
+        }
+        return byteClasses;
+    }
+
+    /**
+     * Compresses a table with a row per state and a column per symbol into a table with a column per class.
+     */
+    int[] compress(int statesCount, int[] targets) {
+        final int size = classOf.length;
+        final int count = count();
+        final int[] compressed = new int[statesCount * count];
+        for (int q = 0; q < statesCount; q++) {
+            for (int c = 0; c < count; c++) {
+                compressed[q * count + c] = targets[q * size + representatives[c]];
+            }
+        }
+        return compressed;
+    }
+
+    interface Columns {
+        long hash(int symbol);
+        boolean equal(int a, int b);
+    }
+}
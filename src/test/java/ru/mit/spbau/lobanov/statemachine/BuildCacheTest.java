@@ -0,0 +1,163 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BuildCacheTest {
+    @After
+    public void tearDown() {
+        BuildCache.setCache(null);
+    }
+
+    @Test
+    public void testStructuralHash() {
+        Random random = new Random(24);
+        DeterministicStateMachine<Character> dsm = DeterministicStateMachineTest.randomMachine(random, "ab", 20);
+        String hash = dsm.structuralHash();
+        assertEquals(64, hash.length());
+        assertEquals(hash, dsm.compact(CompactDeterministicStateMachine.Storage.HEAP).toDeterministic()
+                .structuralHash());
+        assertEquals(hash, dsm.invert().invert().structuralHash());
+        assertNotEquals(hash, dsm.invert().structuralHash());
+        dsm.addState(false);
+        assertNotEquals(hash, dsm.structuralHash());
+
+        NonDeterministicStateMachine<Character> nsm = NonDeterministicStateMachineTest.randomMachine(
+                new Random(1), "ab", 10);
+        String nsmHash = nsm.structuralHash();
+        assertEquals(nsmHash, NonDeterministicStateMachineTest.randomMachine(new Random(1), "ab", 10).structuralHash());
+        assertNotEquals(nsmHash, NonDeterministicStateMachineTest.randomMachine(new Random(2), "ab", 10)
+                .structuralHash());
+        nsm.addEdge(nsm.getInitialState(), 'a', nsm.addState(true));
+        assertNotEquals(nsmHash, nsm.structuralHash());
+    }
+
+    @Test
+    public void testMemoryCache() {
+        Counting counting = new Counting();
+        MemoryResultCache memory = new MemoryResultCache(2, counting);
+        BuildCache.setCache(memory);
+        Random random = new Random(25);
+        NonDeterministicStateMachine<Character> nsm = NonDeterministicStateMachineTest.randomMachine(random, "ab", 8);
+        DeterministicStateMachine<Character> determined = nsm.determine();
+        assertEquals(1, counting.puts);
+        DeterministicStateMachine<Character> cached = nsm.determine();
+        assertEquals(1, counting.puts);
+        assertEquals(1, counting.misses);
+        assertEquals(determined.structuralHash(), cached.structuralHash());
+        assertNotSame(determined, cached);
+
+        DeterministicStateMachine<Character> minimized = cached.minimize();
+        DeterministicStateMachine<Character> inverted = cached.invert();
+        assertEquals(3, counting.puts);
+        assertEquals(2, memory.size());
+        assertEquals(minimized.structuralHash(), determined.minimize().structuralHash());
+        assertEquals(3, counting.puts);
+
+        nsm.determine();
+        assertEquals(4, counting.misses);
+        assertEquals(4, counting.puts);
+        assertEquals(inverted.structuralHash(), determined.invert().structuralHash());
+    }
+
+    @Test
+    public void testDiskCache() throws IOException {
+        Path directory = Files.createTempDirectory("results");
+        try {
+            BuildCache.setCache(new DiskResultCache(directory));
+            DeterministicStateMachine<Character> identifiers = DeterministicStateMachineTest.identifiers();
+            Random random = new Random(26);
+            DeterministicStateMachine<Character> other = DeterministicStateMachineTest.randomMachine(random,
+                    "abc01_", 10);
+            DeterministicStateMachine<Character> intersection = identifiers.intersect(other, true);
+            identifiers.union(other);
+            assertEquals(2, files(directory).size());
+
+            Counting counting = new Counting();
+            BuildCache.setCache(new MemoryResultCache(16, new Chained(new DiskResultCache(directory), counting)));
+            DeterministicStateMachine<Character> cached = identifiers.intersect(other, true);
+            assertEquals(intersection.structuralHash(), cached.structuralHash());
+            DeterministicStateMachineTest.assertSameLanguage(intersection, cached, "abc01_", 4);
+            assertEquals(0, counting.puts);
+            identifiers.intersect(other);
+            assertEquals(1, counting.puts);
+            assertEquals(3, files(directory).size());
+
+            for (Path file : files(directory)) {
+                Files.write(file, new byte[]{1, 2, 3});
+            }
+            BuildCache.setCache(new DiskResultCache(directory));
+            assertEquals(intersection.structuralHash(), identifiers.intersect(other, true).structuralHash());
+
+            DeterministicStateMachine.State state = identifiers.addState(true, "labeled");
+            identifiers.setInitialState(state);
+            identifiers.invert();
+            assertEquals("labeled", label(identifiers.invert()));
+        } finally {
+            for (Path file : files(directory)) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static String label(DeterministicStateMachine<Character> dsm) {
+        CompactDeterministicStateMachine<Character> compact = dsm.compact(CompactDeterministicStateMachine.Storage.HEAP);
+        return compact.getLabel(compact.getInitialState());
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static class Counting implements ResultCache {
+        private int misses;
+        private int puts;
+
+        @Override
+        public CompiledDeterministicStateMachine<?> get(String key) {
+            misses++;
+            return null;
+        }
+
+        @Override
+        public void put(String key, CompiledDeterministicStateMachine<?> machine) {
+            puts++;
+        }
+    }
+
+    private static class Chained implements ResultCache {
+        private final ResultCache first;
+        private final ResultCache second;
+
+        private Chained(ResultCache first, ResultCache second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public CompiledDeterministicStateMachine<?> get(String key) {
+            return first.get(key);
+        }
+
+        @Override
+        public void put(String key, CompiledDeterministicStateMachine<?> machine) {
+            first.put(key, machine);
+            second.put(key, machine);
+        }
+    }
+}
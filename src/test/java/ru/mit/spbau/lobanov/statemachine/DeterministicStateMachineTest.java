@@ -3,6 +3,19 @@ package ru.mit.spbau.lobanov.statemachine;
 import org.junit.Test;
 import ru.mit.spbau.lobanov.statemachine.DeterministicStateMachine.State;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.*;
 
 public class DeterministicStateMachineTest {
@@ -20,4 +33,458 @@ public class DeterministicStateMachineTest {
         assertTrue(dsm.accept('a'));
         assertFalse(dsm.accept('c'));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCompile() {
+        CompiledDeterministicStateMachine<Character> compiled = identifiers().compile();
+        assertEquals(3, compiled.getStatesCount());
+        assertTrue(compiled.accept('a', 'b'));
+        assertTrue(compiled.accept('_', '1'));
+        assertFalse(compiled.accept());
+        assertFalse(compiled.accept('1', 'a'));
+        assertFalse(compiled.accept('a', '!'));
+        assertTrue(compiled.acceptIndices(new int[]{0, 2, 4}, 0, 3));
+        assertFalse(compiled.acceptIndices(new int[]{0, 4, 2}, 1, 3));
+    }
+
+    @Test
+    public void testPrimitiveAccept() {
+        DeterministicStateMachine<Character> dsm = identifiers();
+        CompiledDeterministicStateMachine<Character> compiled = dsm.compile();
+        for (StateMachine<Character> sm : Arrays.asList(dsm, compiled)) {
+            assertTrue(sm.accept("ab_1"));
+            assertFalse(sm.accept("1ab"));
+            assertFalse(sm.accept("ab?"));
+            assertTrue(sm.accept("?abc?".toCharArray(), 1, 4));
+            assertTrue(sm.accept(new byte[]{'c', '0'}, 0, 2));
+            assertFalse(sm.accept(new byte[]{'c', (byte) 0xE9}, 0, 2));
+        }
+    }
+
+    @Test
+    public void testGenericAlphabets() {
+        Alphabet<Character> chars = listAlphabet(Arrays.asList('a', 'b'));
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(chars);
+        State state = dsm.addState(true);
+        State dead = dsm.addState(false);
+        dsm.setEdge(state, 'a', state);
+        dsm.setEdge(state, 'b', dead);
+        dsm.setEdge(dead, 'a', dead);
+        dsm.setEdge(dead, 'b', dead);
+        dsm.setInitialState(state);
+        CompactDeterministicStateMachine<Character> compact = new CompactDeterministicStateMachine<>(chars);
+        int accepting = compact.addState(true, compact.addState(false));
+        compact.setEdge(accepting, 'a', accepting);
+        compact.setInitialState(accepting);
+        for (StateMachine<Character> sm : Arrays.asList(dsm, dsm.compile(), dsm.generate(), compact)) {
+            assertTrue(sm.accept("aa"));
+            assertFalse(sm.accept("ab"));
+            assertFalse(sm.accept("ac"));
+            assertTrue(sm.accept("?aa?".toCharArray(), 1, 3));
+        }
+
+        DeterministicStateMachine<Byte> bytes = new DeterministicStateMachine<>(listAlphabet(Arrays.asList((byte) 1)));
+        bytes.setInitialState(bytes.addState(true));
+        assertTrue(bytes.compile().accept(new byte[]{1, 1}, 0, 2));
+        assertFalse(bytes.compile().accept(new byte[]{1, 2}, 0, 2));
+
+        Alphabet<String> strings = listAlphabet(Arrays.asList("a", "b"));
+        DeterministicStateMachine<String> words = new DeterministicStateMachine<>(strings);
+        words.setInitialState(words.addState(true));
+        assertTrue(words.accept(""));
+        assertFalse(words.accept("a"));
+        assertFalse(words.accept(new byte[]{'a'}, 0, 1));
+    }
+
+    private static <L> Alphabet<L> listAlphabet(List<L> symbols) {
+        return new Alphabet<L>() {
+            @Override
+            L getSymbol(int index) {
+                return symbols.get(index);
+            }
+
+            @Override
+            int getIndex(L symbol) {
+                return symbols.indexOf(symbol);
+            }
+
+            @Override
+            int size() {
+                return symbols.size();
+            }
+        };
+    }
+
+    @Test
+    public void testDecidedStates() {
+        DeterministicStateMachine<Character> dsm = identifiers();
+        CompiledDeterministicStateMachine<Character> compiled = dsm.compile();
+        assertTrue(compiled.isDead(0));
+        assertTrue(compiled.isAlwaysAccepting(1));
+        assertFalse(compiled.isDead(2));
+        assertFalse(compiled.isAlwaysAccepting(2));
+        assertTrue(dsm.accept("a01bc"));
+        assertFalse(dsm.accept("a01b?"));
+        assertFalse(dsm.accept("0abc?"));
+        assertFalse(dsm.accept('0', 'a'));
+    }
+
+    @Test
+    public void testSymbolClasses() {
+        DeterministicStateMachine<Character> dsm = identifiers();
+        CompiledDeterministicStateMachine<Character> compiled = dsm.compile();
+        assertEquals(2, compiled.getSymbolClassesCount());
+        assertEquals(compiled.getTransition(2, 0), compiled.getTransition(2, 5));
+        assertEquals(0, compiled.getTransition(2, 3));
+        assertTrue(compiled.accept("_a1"));
+        assertFalse(compiled.accept("1a_"));
+        assertFalse(compiled.accept("a-"));
+        assertEquals(3, dsm.minimize().compile().getStatesCount());
+    }
+
+    @Test
+    public void testAcceptAfterModification() {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("ab"));
+        State initial = dsm.addState(false);
+        State end = dsm.addState(true);
+        dsm.setInitialState(initial);
+        assertFalse(dsm.accept("a"));
+        dsm.setEdge(initial, 'a', end);
+        assertTrue(dsm.accept("a"));
+        dsm.setInitialState(end);
+        assertTrue(dsm.accept(""));
+    }
+
+    @Test
+    public void testMinimize() {
+        Random random = new Random(239);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            int statesCount = 1 + random.nextInt(30);
+            DeterministicStateMachine<Character> dsm = randomMachine(random, "abc", statesCount);
+            DeterministicStateMachine<Character> min = dsm.minimize();
+            assertSameLanguage(dsm, min, "abc", 6);
+            assertEquals(min.compile().getStatesCount(), min.minimize().compile().getStatesCount());
+
+            DeterministicStateMachine<Character> doubled = dsm.intersect(dsm);
+            CompiledDeterministicStateMachine<Character> a = min.compile();
+            CompiledDeterministicStateMachine<Character> b = doubled.minimize().compile();
+            assertEquals(a.getStatesCount(), b.getStatesCount());
+            assertEquals(a.getInitialState(), b.getInitialState());
+            for (int state = 0; state < a.getStatesCount(); state++) {
+                assertEquals(a.isTerminal(state), b.isTerminal(state));
+                for (int symbol = 0; symbol < 3; symbol++) {
+                    assertEquals(a.getTransition(state, symbol), b.getTransition(state, symbol));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testProductOperations() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            DeterministicStateMachine<Character> a = randomMachine(random, "ab", 1 + random.nextInt(10));
+            DeterministicStateMachine<Character> b = randomMachine(random, "ab", 1 + random.nextInt(10));
+            boolean minimize = random.nextBoolean();
+            DeterministicStateMachine<Character> intersection = a.intersect(b, minimize);
+            DeterministicStateMachine<Character> union = a.union(b, minimize);
+            DeterministicStateMachine<Character> difference = a.difference(b, minimize);
+            DeterministicStateMachine<Character> symmetricDifference = a.symmetricDifference(b, minimize);
+            for (int i = 0; i < 100; i++) {
+                char[] word = new char[random.nextInt(10)];
+                for (int j = 0; j < word.length; j++) {
+                    word[j] = "ab".charAt(random.nextInt(2));
+                }
+                boolean inA = a.accept(word, 0, word.length);
+                boolean inB = b.accept(word, 0, word.length);
+                assertEquals(inA && inB, intersection.accept(word, 0, word.length));
+                assertEquals(inA || inB, union.accept(word, 0, word.length));
+                assertEquals(inA && !inB, difference.accept(word, 0, word.length));
+                assertEquals(inA != inB, symmetricDifference.accept(word, 0, word.length));
+            }
+            if (minimize) {
+                assertEquals(union.minimize().compile().getStatesCount(), union.compile().getStatesCount());
+                assertEquals(a.union(b).minimize().compile().getStatesCount(), union.compile().getStatesCount());
+            }
+        }
+        DeterministicStateMachine<Character> other = new DeterministicStateMachine<>(new SimpleAlphabet("abc"));
+        other.setInitialState(other.addState(true));
+        try {
+            randomMachine(random, "ab", 3).union(other);
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testLanguageChecks() {
+        Random random = new Random(7);
+        for (int iteration = 0; iteration < 300; iteration++) {
+            DeterministicStateMachine<Character> a = randomMachine(random, "ab", 1 + random.nextInt(5));
+            DeterministicStateMachine<Character> b = random.nextBoolean()
+                    ? randomMachine(random, "ab", 1 + random.nextInt(5))
+                    : a.minimize();
+            int shortestDifference = -1;
+            int shortestExtra = -1;
+            int shortestAccepted = -1;
+            for (int length = 0; length <= 10; length++) {
+                for (int mask = 0; mask < 1 << length; mask++) {
+                    char[] word = new char[length];
+                    for (int i = 0; i < length; i++) {
+                        word[i] = (mask & (1 << i)) == 0 ? 'a' : 'b';
+                    }
+                    boolean inA = a.accept(word, 0, length);
+                    boolean inB = b.accept(word, 0, length);
+                    if (inA != inB && shortestDifference == -1) {
+                        shortestDifference = length;
+                    }
+                    if (inA && !inB && shortestExtra == -1) {
+                        shortestExtra = length;
+                    }
+                    if (inA && shortestAccepted == -1) {
+                        shortestAccepted = length;
+                    }
+                }
+            }
+            assertEquals(shortestDifference == -1, a.isEquivalent(b));
+            assertEquals(shortestExtra == -1, a.isSubsetOf(b));
+            assertEquals(shortestAccepted == -1, a.isEmpty());
+            List<Character> difference = a.findDistinguishingWord(b);
+            if (shortestDifference == -1) {
+                assertNull(difference);
+            } else {
+                Character[] word = difference.toArray(new Character[0]);
+                assertEquals(shortestDifference, word.length);
+                assertNotEquals(a.accept(word), b.accept(word));
+            }
+            List<Character> extra = a.findWordNotIn(b);
+            if (shortestExtra == -1) {
+                assertNull(extra);
+            } else {
+                Character[] word = extra.toArray(new Character[0]);
+                assertEquals(shortestExtra, word.length);
+                assertTrue(a.accept(word) && !b.accept(word));
+            }
+            List<Character> accepted = a.findShortestWord();
+            if (shortestAccepted == -1) {
+                assertNull(accepted);
+            } else {
+                assertEquals(shortestAccepted, accepted.size());
+                assertTrue(a.accept(accepted.toArray(new Character[0])));
+            }
+        }
+    }
+
+    @Test
+    public void testGenerate() {
+        GeneratedDeterministicStateMachine<Character> identifiers = identifiers().generate();
+        assertTrue(identifiers.accept("a_01"));
+        assertFalse(identifiers.accept("1a"));
+        assertFalse(identifiers.accept("a0?"));
+        assertFalse(identifiers.accept(""));
+
+        Random random = new Random(13);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            DeterministicStateMachine<Character> dsm = randomMachine(random, "abc", 1 + random.nextInt(20));
+            CompiledDeterministicStateMachine<Character> compiled = dsm.compile();
+            GeneratedDeterministicStateMachine<Character> generated = dsm.generate();
+            for (int i = 0; i < 50; i++) {
+                char[] word = new char[random.nextInt(12)];
+                for (int j = 0; j < word.length; j++) {
+                    word[j] = "abcd".charAt(random.nextInt(random.nextInt(10) == 0 ? 4 : 3));
+                }
+                String text = new String(word);
+                boolean expected = compiled.accept(text);
+                assertEquals(text, expected, generated.accept(text));
+                assertEquals(text, expected, generated.accept(word, 0, word.length));
+                byte[] bytes = ("#" + text + "#").getBytes(StandardCharsets.ISO_8859_1);
+                assertEquals(text, expected, generated.accept(bytes, 1, bytes.length - 1));
+                Matcher matcher = generated.matcher();
+                int middle = word.length / 2;
+                matcher.feed(CharBuffer.wrap(text, 0, middle));
+                matcher.feed(ByteBuffer.wrap(bytes, middle + 1, word.length - middle).slice());
+                assertEquals(text, expected, matcher.isAccepting());
+            }
+        }
+        try {
+            randomMachine(random, "abc", 5000).generate();
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        Random random = new Random(31);
+        for (CompactDeterministicStateMachine.Storage storage : CompactDeterministicStateMachine.Storage.values()) {
+            CompactDeterministicStateMachine<Character> compact =
+                    new CompactDeterministicStateMachine<>(new SimpleAlphabet("abc01_"), storage);
+            int drain = compact.addState(false);
+            int accepted = compact.addState(true, "accepted");
+            int initial = compact.addState(false, accepted);
+            compact.setEdge(initial, '0', drain);
+            compact.setEdge(initial, '1', drain);
+            compact.setInitialState(initial);
+            assertEquals("accepted", compact.getLabel(accepted));
+            assertEquals("2", compact.getLabel(initial));
+            assertSameLanguage(identifiers(), compact, "abc01_?", 4);
+            assertSameLanguage(identifiers().invert(), compact.invert(), "abc01_", 4);
+            assertEquals(3, compact.minimize().getStatesCount());
+            assertTrue(compact.accept(new byte[]{'c', '0'}, 0, 2));
+
+            for (int iteration = 0; iteration < 20; iteration++) {
+                DeterministicStateMachine<Character> first = randomMachine(random, "abc", 1 + random.nextInt(30));
+                DeterministicStateMachine<Character> second = randomMachine(random, "abc", 1 + random.nextInt(30));
+                CompactDeterministicStateMachine<Character> firstCompact = first.compact(storage);
+                CompactDeterministicStateMachine<Character> secondCompact = second.compact(storage);
+                assertSameLanguage(first, firstCompact, "abc", 6);
+                assertSameLanguage(first.minimize(), firstCompact.minimize(), "abc", 6);
+                assertEquals(first.minimize().compile().getStatesCount(), firstCompact.minimize().getStatesCount());
+                assertSameLanguage(first.intersect(second), firstCompact.intersect(secondCompact, true), "abc", 6);
+                assertSameLanguage(first.difference(second), firstCompact.difference(secondCompact), "abc", 6);
+                assertSameLanguage(first.invert(), firstCompact.invert(), "abc", 6);
+                assertSameLanguage(first, firstCompact.toDeterministic(), "abc", 6);
+                assertEquals(storage, firstCompact.union(secondCompact).getStorage());
+
+                NonDeterministicStateMachine<Character> nsm =
+                        NonDeterministicStateMachineTest.randomMachine(random, "abc", 1 + random.nextInt(10));
+                assertSameLanguage(nsm, nsm.determine(ForkJoinPool.commonPool(), storage), "abc", 6);
+            }
+        }
+    }
+
+    @Test
+    public void testCompactInvertThenAddStates() {
+        CompactDeterministicStateMachine<Character> compact = new CompactDeterministicStateMachine<>(
+                new SimpleAlphabet("ab"));
+        for (int i = 0; i < 129; i++) {
+            compact.addState(i % 2 == 0);
+        }
+        compact.setInitialState(0);
+        CompactDeterministicStateMachine<Character> inverted = compact.invert();
+        for (int i = 0; i < 70; i++) {
+            inverted.addState(false);
+        }
+        for (int i = 0; i < 129; i++) {
+            assertEquals(i % 2 != 0, inverted.isTerminal(i));
+        }
+        for (int i = 129; i < 199; i++) {
+            assertFalse(inverted.isTerminal(i));
+        }
+    }
+
+    @Test
+    public void testAcceptAll() {
+        Random random = new Random(37);
+        DeterministicStateMachine<Character> dsm = randomMachine(random, "abc", 50);
+        List<String> words = randomWords(random, "abcd", 5000);
+        char[][] arrays = new char[words.size()][];
+        for (int i = 0; i < words.size(); i++) {
+            arrays[i] = words.get(i).toCharArray();
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        BitSet accepted = dsm.acceptAll(words, pool);
+        assertEquals(accepted, dsm.acceptAll(arrays, pool));
+        assertEquals(accepted, dsm.acceptAll(words));
+        for (int i = 0; i < words.size(); i++) {
+            assertEquals(words.get(i), dsm.accept(words.get(i)), accepted.get(i));
+        }
+        BitSet identifiers = identifiers().acceptAll(Arrays.asList("a1", "1a", "", "ab?", "_", "b0c"));
+        assertEquals(BitSet.valueOf(new long[]{0b110001}), identifiers);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAcceptParallel() throws IOException {
+        Random random = new Random(43);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            CompiledDeterministicStateMachine<Character> compiled =
+                    randomMachine(random, "abc", 1 + random.nextInt(20)).minimize().compile();
+            byte[] input = new byte[random.nextInt(3000)];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (byte) "abc".charAt(random.nextInt(iteration % 2 == 0 ? 3 : 2));
+            }
+            if (iteration % 10 == 0 && input.length > 0) {
+                input[random.nextInt(input.length)] = 'd';
+            }
+            assertEquals(compiled.accept(input, 0, input.length),
+                    compiled.acceptParallel(ByteBuffer.wrap(input), pool, 1 + random.nextInt(500)));
+        }
+        DeterministicStateMachine<Character> dsm = identifiers();
+        byte[] input = new byte[(3 << 20) + 5];
+        Arrays.fill(input, (byte) 'b');
+        input[input.length - 1] = '1';
+        Path file = Files.createTempFile("input", ".txt");
+        try {
+            Files.write(file, input);
+            assertTrue(dsm.acceptParallel(file, pool));
+            input[0] = '0';
+            Files.write(file, input);
+            assertFalse(dsm.acceptParallel(file, pool));
+            assertFalse(dsm.acceptParallel(input, 0, input.length, pool));
+            assertTrue(dsm.acceptParallel(input, 1, input.length, pool));
+        } finally {
+            Files.delete(file);
+        }
+        pool.shutdown();
+    }
+
+    static List<String> randomWords(Random random, String letters, int count) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            }
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    static DeterministicStateMachine<Character> randomMachine(Random random, String letters, int statesCount) {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet(letters));
+        List<State> states = new ArrayList<>();
+        for (int i = 0; i < statesCount; i++) {
+            states.add(dsm.addState(random.nextInt(3) == 0));
+        }
+        for (State state : states) {
+            for (char c : letters.toCharArray()) {
+                dsm.setEdge(state, c, states.get(random.nextInt(statesCount)));
+            }
+        }
+        dsm.setInitialState(states.get(random.nextInt(statesCount)));
+        return dsm;
+    }
+
+    static void assertSameLanguage(StateMachine<Character> expected, StateMachine<Character> actual,
+                                   String letters, int maxLength) {
+        StringBuilder word = new StringBuilder();
+        checkWords(expected, actual, letters, maxLength, word);
+    }
+
+    private static void checkWords(StateMachine<Character> expected, StateMachine<Character> actual,
+                                   String letters, int maxLength, StringBuilder word) {
+        assertEquals(word.toString(), expected.accept(word), actual.accept(word));
+        if (word.length() == maxLength) {
+            return;
+        }
+        for (char c : letters.toCharArray()) {
+            word.append(c);
+            checkWords(expected, actual, letters, maxLength, word);
+            word.setLength(word.length() - 1);
+        }
+    }
+
+    static DeterministicStateMachine<Character> identifiers() {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("abc01_"));
+        State drain = dsm.addState(false);
+        State accepted = dsm.addState(true);
+        State initial = dsm.addState(false, accepted, "initial");
+        dsm.setEdge(initial, '0', drain);
+        dsm.setEdge(initial, '1', drain);
+        dsm.setInitialState(initial);
+        return dsm;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class DictionaryBuilderTest {
+    @Test
+    public void testKeyWords() {
+        DictionaryBuilder<Character> builder = new DictionaryBuilder<>(new SimpleAlphabet("abcdefghijklmnopqrstuvwxyz"));
+        for (String word : new String[]{"else", "false", "if", "in", "let", "then", "true"}) {
+            assertTrue(builder.add(word));
+        }
+        assertFalse(builder.add("if"));
+        assertTrue(builder.contains("then"));
+        assertFalse(builder.contains("the"));
+        assertEquals(7, builder.size());
+
+        DeterministicStateMachine<Character> dsm = builder.build();
+        assertTrue(dsm.accept("false"));
+        assertTrue(dsm.accept('i', 'n'));
+        assertFalse(dsm.accept("fals"));
+        assertFalse(dsm.accept(""));
+        assertEquals(dsm.minimize().compile().getStatesCount(), builder.getStatesCount());
+        assertEquals(builder.getStatesCount(), dsm.compile().getStatesCount());
+    }
+
+    @Test
+    public void testRandomOrder() {
+        Random random = new Random(21);
+        String letters = "abc";
+        List<String> words = DeterministicStateMachineTest.randomWords(random, letters, 400);
+        TreeSet<String> expected = new TreeSet<>(words);
+
+        DictionaryBuilder<Character> sorted = new DictionaryBuilder<>(new SimpleAlphabet(letters));
+        sorted.addAll(expected);
+        DictionaryBuilder<Character> unsorted = new DictionaryBuilder<>(new SimpleAlphabet(letters));
+        unsorted.addAll(words);
+        assertEquals(expected.size(), sorted.size());
+        assertEquals(expected.size(), unsorted.size());
+
+        DeterministicStateMachine<Character> trie = trie(letters, expected);
+        DeterministicStateMachineTest.assertSameLanguage(trie, sorted.build(), letters, 7);
+        DeterministicStateMachineTest.assertSameLanguage(trie, unsorted.build(), letters, 7);
+        int minimal = trie.minimize().compile().getStatesCount();
+        assertEquals(minimal, sorted.getStatesCount());
+        assertEquals(minimal, unsorted.getStatesCount());
+    }
+
+    @Test
+    public void testRemove() {
+        Random random = new Random(22);
+        String letters = "ab";
+        List<String> words = new ArrayList<>(new TreeSet<>(DeterministicStateMachineTest.randomWords(random, letters, 200)));
+        DictionaryBuilder<Character> builder = new DictionaryBuilder<>(new SimpleAlphabet(letters));
+        builder.addAll(words);
+        Collections.shuffle(words, random);
+        List<String> removed = words.subList(0, words.size() / 2);
+        for (String word : removed) {
+            assertTrue(builder.remove(word));
+            assertFalse(builder.contains(word));
+        }
+        assertFalse(builder.remove(removed.get(0)));
+        assertFalse(builder.remove("c"));
+        List<String> kept = words.subList(words.size() / 2, words.size());
+        assertEquals(kept.size(), builder.size());
+
+        DeterministicStateMachine<Character> trie = trie(letters, new TreeSet<>(kept));
+        DeterministicStateMachineTest.assertSameLanguage(trie, builder.build(), letters, 11);
+        assertEquals(trie.minimize().compile().getStatesCount(), builder.getStatesCount());
+
+        for (String word : kept) {
+            builder.remove(word);
+        }
+        assertEquals(0, builder.size());
+        assertEquals(1, builder.getStatesCount());
+        assertFalse(builder.build().accept(""));
+    }
+
+    private static DeterministicStateMachine<Character> trie(String letters, Collection<String> words) {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet(letters));
+        DeterministicStateMachine.State drain = dsm.addState(false);
+        Map<String, DeterministicStateMachine.State> prefixes = new HashMap<>();
+        prefixes.put("", dsm.addState(words.contains(""), drain, "root"));
+        for (String word : words) {
+            for (int i = 1; i <= word.length(); i++) {
+                String prefix = word.substring(0, i);
+                if (!prefixes.containsKey(prefix)) {
+                    prefixes.put(prefix, dsm.addState(words.contains(prefix), drain, prefix));
+                    dsm.setEdge(prefixes.get(word.substring(0, i - 1)), word.charAt(i - 1), prefixes.get(prefix));
+                }
+            }
+        }
+        dsm.setInitialState(prefixes.get(""));
+        return dsm;
+    }
+}
@@ -0,0 +1,90 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MatcherTest {
+    @Test
+    public void testChunks() {
+        Matcher matcher = DeterministicStateMachineTest.identifiers().compile().matcher();
+        assertFalse(matcher.isAccepting());
+        matcher.feed(CharBuffer.wrap("ab"));
+        assertTrue(matcher.isAccepting());
+        matcher.feed(ByteBuffer.wrap(new byte[]{'_', '1'}));
+        assertTrue(matcher.isAccepting());
+        assertFalse(matcher.isDead());
+        matcher.feed(CharBuffer.wrap("?"));
+        assertFalse(matcher.isAccepting());
+        assertTrue(matcher.isDead());
+
+        matcher.reset();
+        matcher.feed(CharBuffer.wrap("1"));
+        assertTrue(matcher.isDead());
+        matcher.reset();
+        assertFalse(matcher.isDead());
+    }
+
+    @Test
+    public void testNonDeterministic() throws IOException {
+        NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(new SimpleAlphabet("ab"));
+        NonDeterministicStateMachine.State initial = nsm.addState(false);
+        NonDeterministicStateMachine.State end = nsm.addState(true);
+        NonDeterministicStateMachine.State trap = nsm.addState(false);
+        nsm.setInitialState(initial);
+        nsm.addEdge(initial, 'a', initial);
+        nsm.addEdge(initial, 'b', initial);
+        nsm.addEdge(initial, 'b', end);
+        nsm.addEdge(initial, 'a', trap);
+
+        Matcher matcher = nsm.compile().matcher();
+        matcher.feed(new StringReader("aabab"));
+        assertTrue(matcher.isAccepting());
+        matcher.feed(Channels.newChannel(new ByteArrayInputStream(new byte[]{'a', 'a'})));
+        assertFalse(matcher.isAccepting());
+        assertFalse(matcher.isDead());
+        matcher.feed(CharBuffer.wrap("c"));
+        assertTrue(matcher.isDead());
+    }
+
+    @Test
+    public void testLargeInput() throws IOException {
+        Matcher matcher = DeterministicStateMachineTest.identifiers().compile().matcher();
+        byte[] input = new byte[100_000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) "abc01_".charAt(i % 6);
+        }
+        matcher.feed(Channels.newChannel(new ByteArrayInputStream(input)));
+        assertTrue(matcher.isAccepting());
+
+        matcher.reset();
+        matcher.feed(Channels.newChannel(new ByteArrayInputStream(input)), ByteBuffer.allocateDirect(100));
+        assertTrue(matcher.isAccepting());
+        matcher.feed(new StringReader("?"), CharBuffer.allocate(1));
+        assertTrue(matcher.isDead());
+
+        Path file = Files.createTempFile("matcher", ".txt");
+        try {
+            Files.write(file, input);
+            matcher.reset();
+            try (FileChannel channel = FileChannel.open(file)) {
+                channel.position(6);
+                matcher.feed(channel);
+                assertEquals(input.length, channel.position());
+            }
+            assertTrue(matcher.isAccepting());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Test;
+import ru.mit.spbau.lobanov.statemachine.MultiPatternSearcher.Match;
+import ru.mit.spbau.lobanov.statemachine.MultiPatternSearcher.Mode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MultiPatternSearcherTest {
+    @Test
+    public void testKeywords() {
+        List<CompiledDeterministicStateMachine<Character>> patterns = Arrays.asList(
+                word("he"), word("she"), word("his"), word("hers"));
+        MultiPatternSearcher<Character> overlapping = new MultiPatternSearcher<>(patterns, Mode.OVERLAPPING);
+        assertEquals(Arrays.asList(new Match(1, 4, 1), new Match(2, 4, 0), new Match(2, 6, 3)),
+                overlapping.findAll("ushers"));
+        MultiPatternSearcher<Character> leftmost = new MultiPatternSearcher<>(patterns, Mode.LEFTMOST_LONGEST);
+        assertEquals(Arrays.asList(new Match(1, 4, 1), new Match(7, 10, 2)), leftmost.findAll("ushers his"));
+    }
+
+    @Test
+    public void testRandomPatterns() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 300; iteration++) {
+            List<CompiledDeterministicStateMachine<Character>> patterns = new ArrayList<>();
+            int patternsCount = 1 + random.nextInt(3);
+            for (int i = 0; i < patternsCount; i++) {
+                DeterministicStateMachine<Character> dsm =
+                        DeterministicStateMachineTest.randomMachine(random, "ab", 1 + random.nextInt(5));
+                patterns.add(random.nextBoolean() ? dsm.minimize().compile() : dsm.compile());
+            }
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                text.append("abc".charAt(random.nextInt(3)));
+            }
+
+            List<Match> overlapping = new MultiPatternSearcher<>(patterns, Mode.OVERLAPPING).findAll(text);
+            Set<Match> expectedOverlapping = new HashSet<>();
+            for (int end = 0; end <= length; end++) {
+                for (int p = 0; p < patternsCount; p++) {
+                    for (int start = 0; start <= end; start++) {
+                        if (matches(patterns.get(p), text, start, end)) {
+                            expectedOverlapping.add(new Match(start, end, p));
+                            break;
+                        }
+                    }
+                }
+            }
+            assertEquals(expectedOverlapping.size(), overlapping.size());
+            assertEquals(expectedOverlapping, new HashSet<>(overlapping));
+
+            MultiPatternSearcher<Character> searcher = new MultiPatternSearcher<>(patterns, Mode.LEFTMOST_LONGEST);
+            List<Match> expected = leftmostLongest(patterns, text);
+            assertEquals(text.toString(), expected, searcher.findAll(text));
+            List<Match> streamed = new ArrayList<>();
+            MultiPatternSearcher<Character>.Cursor cursor =
+                    searcher.cursor((start, end, patternId) -> streamed.add(new Match(start, end, patternId)));
+            for (int i = 0; i < length; i += 3) {
+                cursor.feed(text.subSequence(i, Math.min(length, i + 3)));
+            }
+            cursor.finish();
+            assertEquals(expected, streamed);
+        }
+    }
+
+    private static List<Match> leftmostLongest(List<CompiledDeterministicStateMachine<Character>> patterns,
+                                               CharSequence text) {
+        List<Match> result = new ArrayList<>();
+        int position = 0;
+        int lastEmpty = -1;
+        search:
+        while (position <= text.length()) {
+            for (int start = position; start <= text.length(); start++) {
+                Match best = null;
+                for (int end = start; end <= text.length(); end++) {
+                    for (int p = 0; p < patterns.size(); p++) {
+                        if (matches(patterns.get(p), text, start, end) && !(start == end && end == lastEmpty)
+                                && (best == null || best.getEnd() < end)) {
+                            best = new Match(start, end, p);
+                        }
+                    }
+                }
+                if (best != null) {
+                    result.add(best);
+                    position = (int) best.getEnd();
+                    if (best.getStart() == best.getEnd()) {
+                        lastEmpty = position;
+                    }
+                    continue search;
+                }
+            }
+            break;
+        }
+        return result;
+    }
+
+    private static boolean matches(CompiledDeterministicStateMachine<Character> pattern, CharSequence text,
+                                   long start, long end) {
+        return pattern.accept(text.subSequence((int) start, (int) end));
+    }
+
+    private static CompiledDeterministicStateMachine<Character> word(String word) {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("ehirsu "));
+        DeterministicStateMachine.State drain = dsm.addState(false);
+        DeterministicStateMachine.State current = dsm.addState(word.isEmpty(), drain, "0");
+        dsm.setInitialState(current);
+        for (int i = 0; i < word.length(); i++) {
+            DeterministicStateMachine.State next = dsm.addState(i == word.length() - 1, drain, "" + (i + 1));
+            dsm.setEdge(current, word.charAt(i), next);
+            current = next;
+        }
+        return dsm.compile();
+    }
+}
@@ -2,6 +2,13 @@ package ru.mit.spbau.lobanov.statemachine;
 
 import org.junit.Test;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.*;
 
 public class NonDeterministicStateMachineTest {
@@ -22,5 +29,216 @@ public class NonDeterministicStateMachineTest {
         assertTrue(dsm.accept('a', 'b'));
         assertTrue(dsm.accept('a', 'a'));
         assertFalse(dsm.accept('c'));
+        assertTrue(dsm.accept("ab"));
+        assertTrue(dsm.accept("_aa_".toCharArray(), 1, 3));
+        assertFalse(dsm.accept(new byte[]{'a', 'c'}, 0, 2));
+    }
+
+    @Test
+    public void testByteAlphabet() {
+        NonDeterministicStateMachine<Byte> nsm = new NonDeterministicStateMachine<>(new ByteAlphabet((byte) 0, (byte) 0xFF));
+        NonDeterministicStateMachine.State initial = nsm.addState(true);
+        nsm.setInitialState(initial);
+        nsm.addEdge(initial, (byte) 0xFF, initial);
+        assertTrue(nsm.accept(new byte[]{-1, -1}, 0, 2));
+        assertFalse(nsm.accept(new byte[]{-1, 0}, 0, 2));
+        assertFalse(nsm.accept(new byte[]{1}, 0, 1));
+        assertTrue(nsm.accept("\u00FF"));
+    }
+
+    @Test
+    public void testDeadStates() {
+        NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(new SimpleAlphabet("ab"));
+        NonDeterministicStateMachine.State initial = nsm.addState(false);
+        NonDeterministicStateMachine.State trap = nsm.addState(false);
+        NonDeterministicStateMachine.State end = nsm.addState(true);
+        nsm.setInitialState(initial);
+        nsm.addEdge(initial, 'a', trap);
+        nsm.addEdge(trap, 'a', trap);
+        nsm.addEdge(trap, 'b', trap);
+        nsm.addEdge(initial, 'b', end);
+        CompiledNonDeterministicStateMachine<Character> compiled = nsm.compile();
+        assertTrue(compiled.isDead(1));
+        assertFalse(compiled.isDead(0));
+        assertFalse(nsm.accept("abbb"));
+        assertTrue(nsm.accept("b"));
+        Matcher matcher = compiled.matcher();
+        matcher.feed(CharBuffer.wrap("a"));
+        assertTrue(matcher.isDead());
+    }
+
+    @Test
+    public void testSymbolClasses() {
+        NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(new SimpleAlphabet("abcd"));
+        NonDeterministicStateMachine.State initial = nsm.addState(false);
+        NonDeterministicStateMachine.State end = nsm.addState(true);
+        nsm.setInitialState(initial);
+        nsm.addEdge(initial, 'a', end);
+        for (char c : "bcd".toCharArray()) {
+            nsm.addEdge(initial, c, initial);
+            nsm.addEdge(end, c, end);
+        }
+        CompiledNonDeterministicStateMachine<Character> compiled = nsm.compile();
+        assertEquals(2, compiled.getSymbolClassesCount());
+        assertTrue(compiled.accept("bcadd"));
+        assertFalse(compiled.accept("bcd"));
+        assertFalse(compiled.accept("aa"));
+        assertFalse(compiled.accept("ba?"));
+        DeterministicStateMachineTest.assertSameLanguage(nsm.determine(), nsm.lazy(2), "abcd", 5);
+    }
+
+    @Test
+    public void testLazy() {
+        Random random = new Random(17);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            NonDeterministicStateMachine<Character> nsm = randomMachine(random, "ab", 1 + random.nextInt(12));
+            DeterministicStateMachine<Character> dsm = nsm.determine();
+            LazyDeterministicStateMachine<Character> lazy = nsm.lazy(2 + random.nextInt(4));
+            DeterministicStateMachineTest.assertSameLanguage(dsm, lazy, "ab", 8);
+            DeterministicStateMachineTest.assertSameLanguage(dsm, nsm.compile(), "ab", 8);
+            assertTrue(lazy.getCacheHits() + lazy.getCacheMisses() > 0);
+        }
+        NonDeterministicStateMachine<Character> nsm = randomMachine(new Random(5), "ab", 12);
+        LazyDeterministicStateMachine<Character> lazy = nsm.lazy(2);
+        DeterministicStateMachineTest.assertSameLanguage(nsm, lazy, "ab", 10);
+        assertTrue(lazy.getCacheFlushes() > 0);
+        assertTrue(lazy.getFallbacks() > 0);
+        assertTrue(lazy.getCachedStatesCount() <= 2);
+    }
+
+    @Test
+    public void testParallelDetermine() {
+        Random random = new Random(3);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int iteration = 0; iteration < 50; iteration++) {
+            NonDeterministicStateMachine<Character> nsm = randomMachine(random, "abc", 1 + random.nextInt(40));
+            CompiledDeterministicStateMachine<Character> expected = nsm.determine().compile();
+            CompiledDeterministicStateMachine<Character> actual = nsm.determine(pool).compile();
+            assertEquals(expected.getStatesCount(), actual.getStatesCount());
+            for (int state = 0; state < expected.getStatesCount(); state++) {
+                assertEquals(expected.isTerminal(state), actual.isTerminal(state));
+                for (int symbol = 0; symbol < 3; symbol++) {
+                    assertEquals(expected.getTransition(state, symbol), actual.getTransition(state, symbol));
+                }
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBitParallel() {
+        Random random = new Random(13);
+        for (int iteration = 0; iteration < 60; iteration++) {
+            int statesCount = iteration < 40 ? 1 + random.nextInt(64) : 65 + random.nextInt(200);
+            NonDeterministicStateMachine<Character> nsm = randomMachine(random, "abc", statesCount);
+            BitParallelNonDeterministicStateMachine<Character> bitParallel = nsm.bitParallel();
+            DeterministicStateMachineTest.assertSameLanguage(nsm.compile(), bitParallel, "abcd", 6);
+            assertEquals(nsm.accept('a', 'b', 'c'), bitParallel.accept('a', 'b', 'c'));
+            assertEquals(nsm.accept(new byte[]{'c', 'a'}, 0, 2), bitParallel.accept(new byte[]{'c', 'a'}, 0, 2));
+            Matcher matcher = bitParallel.matcher();
+            matcher.feed(CharBuffer.wrap("ab"));
+            matcher.feed(CharBuffer.wrap("c"));
+            assertEquals(nsm.accept("abc"), matcher.isAccepting());
+        }
+        try {
+            randomMachine(random, "ab", BitParallelNonDeterministicStateMachine.MAX_STATES_COUNT + 1).bitParallel();
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testAcceptAll() {
+        Random random = new Random(41);
+        NonDeterministicStateMachine<Character> nsm = randomMachine(random, "abc", 30);
+        List<String> words = DeterministicStateMachineTest.randomWords(random, "abcd", 3000);
+        char[][] arrays = new char[words.size()][];
+        for (int i = 0; i < words.size(); i++) {
+            arrays[i] = words.get(i).toCharArray();
+        }
+        BitSet accepted = nsm.acceptAll(words);
+        assertEquals(accepted, nsm.acceptAll(arrays, ForkJoinPool.commonPool()));
+        assertEquals(accepted, nsm.determine().acceptAll(words));
+        for (int i = 0; i < words.size(); i++) {
+            assertEquals(words.get(i), nsm.accept(words.get(i)), accepted.get(i));
+        }
+    }
+
+    @Test
+    public void testLanguageChecks() {
+        Random random = new Random(11);
+        for (int iteration = 0; iteration < 300; iteration++) {
+            NonDeterministicStateMachine<Character> a = randomMachine(random, "ab", 1 + random.nextInt(6));
+            NonDeterministicStateMachine<Character> b = randomMachine(random, "ab", 1 + random.nextInt(6));
+            DeterministicStateMachine<Character> dsmA = a.determine();
+            DeterministicStateMachine<Character> dsmB = b.determine();
+            assertEquals(dsmA.isEmpty(), a.isEmpty());
+            assertEquals(dsmA.isSubsetOf(dsmB), a.isSubsetOf(b));
+            assertEquals(dsmA.isEquivalent(dsmB), a.isEquivalent(b));
+            assertTrue(a.isEquivalent(a));
+            List<Character> extra = a.findWordNotIn(b);
+            if (extra != null) {
+                Character[] word = extra.toArray(new Character[0]);
+                assertTrue(a.accept(word) && !b.accept(word));
+                assertEquals(dsmA.findWordNotIn(dsmB).size(), word.length);
+            }
+            List<Character> difference = a.findDistinguishingWord(b);
+            if (difference != null) {
+                Character[] word = difference.toArray(new Character[0]);
+                assertNotEquals(a.accept(word), b.accept(word));
+                assertEquals(dsmA.findDistinguishingWord(dsmB).size(), word.length);
+            }
+            List<Character> accepted = a.findShortestWord();
+            if (accepted != null) {
+                assertTrue(a.accept(accepted.toArray(new Character[0])));
+                assertEquals(dsmA.findShortestWord().size(), accepted.size());
+            }
+        }
+    }
+
+    @Test
+    public void testReduce() {
+        NonDeterministicStateMachine<Character> keyWords = new NonDeterministicStateMachine<>(new SimpleAlphabet("abcdefghijklmnopqrstuvwxyz"));
+        keyWords.setInitialState(keyWords.addState(false));
+        for (String word : new String[]{"if", "then", "else", "let", "in", "true", "false"}) {
+            NonDeterministicStateMachine.State current = keyWords.getInitialState();
+            for (int i = 0; i < word.length(); i++) {
+                NonDeterministicStateMachine.State next = keyWords.addState(i == word.length() - 1);
+                keyWords.addEdge(current, word.charAt(i), next);
+                current = next;
+            }
+        }
+        keyWords.addState(true);
+        NonDeterministicStateMachine<Character> reduced = keyWords.reduce();
+        assertEquals(26, keyWords.compile().getStatesCount());
+        assertEquals(13, reduced.compile().getStatesCount());
+        assertTrue(reduced.accept("else"));
+        assertFalse(reduced.accept("els"));
+        assertEquals(keyWords.determine(false).minimize().compile().getStatesCount(),
+                keyWords.determine().minimize().compile().getStatesCount());
+
+        Random random = new Random(29);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            NonDeterministicStateMachine<Character> nsm = randomMachine(random, "ab", 1 + random.nextInt(12));
+            CompiledNonDeterministicStateMachine<Character> compiled = nsm.compile(true);
+            assertTrue(compiled.getStatesCount() <= nsm.compile().getStatesCount());
+            DeterministicStateMachineTest.assertSameLanguage(nsm.compile(), compiled, "ab", 8);
+            DeterministicStateMachineTest.assertSameLanguage(nsm.determine(false), nsm.determine(), "ab", 8);
+            assertTrue(nsm.determine().compile().getStatesCount() <= nsm.determine(false).compile().getStatesCount());
+        }
+    }
+
+    static NonDeterministicStateMachine<Character> randomMachine(Random random, String letters, int statesCount) {
+        NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(new SimpleAlphabet(letters));
+        List<NonDeterministicStateMachine.State> states = new ArrayList<>();
+        for (int i = 0; i < statesCount; i++) {
+            states.add(nsm.addState(random.nextInt(3) == 0));
+        }
+        for (int i = 0; i < 2 * statesCount; i++) {
+            char symbol = letters.charAt(random.nextInt(letters.length()));
+            nsm.addEdge(states.get(random.nextInt(statesCount)), symbol, states.get(random.nextInt(statesCount)));
+        }
+        nsm.setInitialState(states.get(0));
+        return nsm;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,121 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StateMachineFormatTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMappedDeterministic() throws IOException {
+        Random random = new Random(19);
+        for (int iteration = 0; iteration < 30; iteration++) {
+            DeterministicStateMachine<Character> dsm =
+                    DeterministicStateMachineTest.randomMachine(random, "abc", 1 + random.nextInt(100));
+            CompiledDeterministicStateMachine<Character> compiled = dsm.compile();
+            Path path = write(compiled);
+            MappedDeterministicStateMachine<Character> mapped = MappedDeterministicStateMachine.map(path);
+            assertEquals(compiled.getStatesCount(), mapped.getStatesCount());
+            assertEquals(compiled.getInitialState(), mapped.getInitialState());
+            for (int state = 0; state < compiled.getStatesCount(); state++) {
+                assertEquals(compiled.isTerminal(state), mapped.isTerminal(state));
+                assertEquals(compiled.isDead(state), mapped.isDead(state));
+                assertEquals(compiled.isAlwaysAccepting(state), mapped.isAlwaysAccepting(state));
+                for (int symbol = 0; symbol < 3; symbol++) {
+                    assertEquals(compiled.getTransition(state, symbol), mapped.getTransition(state, symbol));
+                }
+            }
+            DeterministicStateMachineTest.assertSameLanguage(compiled, mapped, "abcd", 5);
+        }
+    }
+
+    @Test
+    public void testMappedByteAlphabet() throws IOException {
+        DeterministicStateMachine<Byte> dsm = new DeterministicStateMachine<>(new ByteAlphabet((byte) 0, (byte) 0xFF));
+        DeterministicStateMachine.State even = dsm.addState(true);
+        DeterministicStateMachine.State odd = dsm.addState(false);
+        dsm.setEdge(even, (byte) 0xFF, odd);
+        dsm.setEdge(odd, (byte) 0xFF, even);
+        dsm.setInitialState(even);
+        MappedDeterministicStateMachine<Byte> mapped = MappedDeterministicStateMachine.map(write(dsm.compile()));
+        byte[] word = {(byte) 0xFF, 0, (byte) 0xFF, 1};
+        assertTrue(mapped.accept(word, 0, 3));
+        assertFalse(mapped.accept(word, 0, 2));
+        assertFalse(mapped.accept(word, 0, 4));
+        assertTrue(mapped.accept((byte) 0, (byte) 0xFF, (byte) 0xFF));
+        Matcher matcher = mapped.matcher();
+        matcher.feed(ByteBuffer.wrap(word, 0, 1));
+        assertFalse(matcher.isAccepting());
+        matcher.feed(ByteBuffer.wrap(word, 1, 2));
+        assertTrue(matcher.isAccepting());
+    }
+
+    @Test
+    public void testNonDeterministic() throws IOException {
+        Random random = new Random(23);
+        for (int iteration = 0; iteration < 30; iteration++) {
+            NonDeterministicStateMachine<Character> nsm =
+                    NonDeterministicStateMachineTest.randomMachine(random, "ab", 1 + random.nextInt(20));
+            CompiledNonDeterministicStateMachine<Character> compiled = nsm.compile();
+            Path path = folder.newFile().toPath();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                compiled.writeTo(channel);
+            }
+            CompiledNonDeterministicStateMachine<Character> read = CompiledNonDeterministicStateMachine.read(path);
+            assertEquals(compiled.getStatesCount(), read.getStatesCount());
+            DeterministicStateMachineTest.assertSameLanguage(compiled, read, "ab", 8);
+        }
+    }
+
+    @Test
+    public void testCorruptedFile() throws IOException {
+        Path path = write(DeterministicStateMachineTest.identifiers().compile());
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+        try {
+            MappedDeterministicStateMachine.map(path, true);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 8));
+        try {
+            MappedDeterministicStateMachine.map(path);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("size"));
+        }
+        try {
+            CompiledNonDeterministicStateMachine.read(write(DeterministicStateMachineTest.identifiers().compile()));
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+        Matcher matcher = MappedDeterministicStateMachine.map(
+                write(DeterministicStateMachineTest.identifiers().compile())).matcher();
+        matcher.feed(CharBuffer.wrap("a1"));
+        assertTrue(matcher.isAccepting());
+    }
+
+    private Path write(CompiledDeterministicStateMachine<?> compiled) throws IOException {
+        Path path = folder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            compiled.writeTo(channel);
+        }
+        return path;
+    }
+}
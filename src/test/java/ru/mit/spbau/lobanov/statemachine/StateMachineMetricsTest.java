@@ -0,0 +1,134 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class StateMachineMetricsTest {
+    private final StateMachineMetricsMXBean counters = StateMachineMetrics.getCounters();
+
+    @Before
+    public void setUp() {
+        assumeTrue(StateMachineMetrics.ENABLED);
+        counters.reset();
+    }
+
+    @Test
+    public void testConstructionStats() {
+        List<ConstructionStats> constructed = new ArrayList<>();
+        List<Integer> progress = new ArrayList<>();
+        ConstructionListener listener = new ConstructionListener() {
+            @Override
+            public void onConstruction(ConstructionStats stats) {
+                constructed.add(stats);
+            }
+
+            @Override
+            public void onProgress(ConstructionStats.Operation operation, int statesCount) {
+                progress.add(statesCount);
+            }
+        };
+        StateMachineMetrics.addListener(listener);
+        try {
+            NonDeterministicStateMachine<Character> nsm =
+                    NonDeterministicStateMachineTest.randomMachine(new Random(7), "ab", 10);
+            DeterministicStateMachine<Character> dsm = nsm.determine();
+            DeterministicStateMachine<Character> minimized = dsm.minimize();
+            dsm.intersect(minimized);
+            assertEquals(3, constructed.size());
+            ConstructionStats determine = constructed.get(0);
+            assertEquals(ConstructionStats.Operation.DETERMINE, determine.getOperation());
+            assertEquals(10, determine.getInputStatesCount());
+            assertEquals(nsm.compile().getSuccessorsCount(), determine.getInputTransitionsCount());
+            assertEquals(dsm.compile().getStatesCount(), determine.getStatesCount());
+            assertTrue(determine.getNanos() > 0);
+            ConstructionStats minimize = constructed.get(1);
+            assertEquals(ConstructionStats.Operation.MINIMIZE, minimize.getOperation());
+            assertTrue(minimize.getGrowth() <= 1);
+            assertEquals(ConstructionStats.Operation.INTERSECTION, constructed.get(2).getOperation());
+            assertEquals(3, counters.getConstructions());
+            assertNotNull(counters.getLastConstruction());
+
+            nsm.determine(ForkJoinPool.commonPool());
+            assertEquals(4, constructed.size());
+            assertEquals(determine.getStatesCount(), (int) progress.get(progress.size() - 1));
+        } finally {
+            StateMachineMetrics.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testMatchCounters() throws Exception {
+        CompiledDeterministicStateMachine<Character> compiled = DeterministicStateMachineTest.identifiers().compile();
+        assertTrue(compiled.accept("ab1"));
+        assertFalse(compiled.accept("1ab"));
+        assertFalse(compiled.accept("a?b"));
+        assertEquals(3, counters.getMatches());
+        assertEquals(6, counters.getSymbols());
+        assertEquals(2, counters.getEarlyRejections());
+
+        LazyDeterministicStateMachine<Character> lazy =
+                NonDeterministicStateMachineTest.randomMachine(new Random(3), "ab", 8).lazy(16);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 3 * StateMachineMetrics.LAZY_HITS_BATCH; i++) {
+            word.append(i % 3 == 0 ? 'a' : 'b');
+        }
+        lazy.accept(word);
+        assertEquals(lazy.getCacheMisses(), counters.getLazyCacheMisses());
+        assertEquals(lazy.getCacheHits() / StateMachineMetrics.LAZY_HITS_BATCH * StateMachineMetrics.LAZY_HITS_BATCH,
+                counters.getLazyCacheHits());
+
+        counters.reset();
+        compiled.acceptAll(Arrays.asList("ab1", "1ab", "a?b"));
+        assertEquals(3, counters.getMatches());
+        assertEquals(6, counters.getSymbols());
+        assertEquals(2, counters.getEarlyRejections());
+
+        counters.reset();
+        BitParallelNonDeterministicStateMachine<Character> bitParallel =
+                NonDeterministicStateMachineTest.randomMachine(new Random(3), "ab", 8).compile().bitParallel();
+        bitParallel.accept("abab");
+        bitParallel.accept("ac");
+        assertEquals(2, counters.getMatches());
+        assertEquals(1, counters.getEarlyRejections());
+
+        ObjectName name = new ObjectName("ru.mit.spbau.lobanov.statemachine:type=StateMachineMetrics");
+        assertEquals(counters.getMatches(),
+                ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Matches"));
+    }
+
+    @Test
+    public void testFailingListener() {
+        ConstructionListener listener = new ConstructionListener() {
+            @Override
+            public void onConstruction(ConstructionStats stats) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onProgress(ConstructionStats.Operation operation, int statesCount) {
+                throw new IllegalStateException();
+            }
+        };
+        StateMachineMetrics.addListener(listener);
+        try {
+            NonDeterministicStateMachine<Character> nsm =
+                    NonDeterministicStateMachineTest.randomMachine(new Random(7), "ab", 10);
+            assertNotNull(nsm.determine().minimize());
+            assertNotNull(nsm.determine(ForkJoinPool.commonPool()));
+            assertEquals(3, counters.getConstructions());
+        } finally {
+            StateMachineMetrics.removeListener(listener);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StateMachineRegistryTest {
+    @Test
+    public void testSwap() {
+        CompiledDeterministicStateMachine<Character> identifiers = DeterministicStateMachineTest.identifiers().compile();
+        CompiledDeterministicStateMachine<Character> others = DeterministicStateMachineTest.identifiers().invert().compile();
+        StateMachineRegistry<Character> registry = new StateMachineRegistry<>(identifiers);
+        assertTrue(registry.accept("ab1"));
+        Matcher matcher = registry.matcher();
+
+        assertSame(identifiers, registry.swap(others));
+        assertEquals(1, registry.getVersion());
+        assertFalse(registry.accept("ab1"));
+        assertTrue(registry.accept("1ab"));
+        matcher.feed(CharBuffer.wrap("ab1"));
+        assertTrue(matcher.isAccepting());
+
+        assertFalse(registry.compareAndSwap(identifiers, identifiers));
+        assertTrue(registry.compareAndSwap(others, identifiers));
+        assertEquals(2, registry.getVersion());
+        assertTrue(registry.accept("ab1"));
+    }
+
+    @Test
+    public void testRebuildOrder() throws Exception {
+        CompiledDeterministicStateMachine<Character> identifiers = DeterministicStateMachineTest.identifiers().compile();
+        StateMachineRegistry<Character> registry = new StateMachineRegistry<>(identifiers);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> slow = registry.rebuild(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return DeterministicStateMachineTest.identifiers().invert().compile();
+        }, executor);
+        CompletableFuture<Boolean> fast = registry.rebuild(() ->
+                DeterministicStateMachineTest.identifiers().minimize().compile(), executor);
+        assertTrue(fast.get());
+        latch.countDown();
+        assertFalse(slow.get());
+        assertEquals(1, registry.getVersion());
+        assertTrue(registry.accept("ab1"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        CompiledDeterministicStateMachine<Character> identifiers = DeterministicStateMachineTest.identifiers().compile();
+        CompiledDeterministicStateMachine<Character> others = DeterministicStateMachineTest.identifiers().invert().compile();
+        StateMachineRegistry<Character> registry = new StateMachineRegistry<>(identifiers);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(executor.submit(() -> {
+                while (!stopped.get()) {
+                    FrozenStateMachine<Character> machine = registry.get();
+                    assertEquals(machine == identifiers, machine.accept("abc_01"));
+                    assertEquals(machine == others, machine.accept("0abc"));
+                }
+            }));
+        }
+        for (int i = 0; i < 1000; i++) {
+            registry.swap(i % 2 == 0 ? others : identifiers);
+        }
+        stopped.set(true);
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        assertEquals(1000, registry.getVersion());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
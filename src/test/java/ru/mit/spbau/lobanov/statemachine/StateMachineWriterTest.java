@@ -0,0 +1,107 @@
+package ru.mit.spbau.lobanov.statemachine;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class StateMachineWriterTest {
+    @Test
+    public void testDot() {
+        assertEquals("digraph dsm {\n" +
+                "    S0 [label=\"0\"][shape=circle];\n" +
+                "    S1 [label=\"1\"][shape=doublecircle];\n" +
+                "    S2 [label=\"initial\"][shape=circle];\n" +
+                "SPACE [color=white][label=\"\"];\n" +
+                "    S0 -> S0 [label = \"a-c,0,1,_\"];\n" +
+                "    S1 -> S1 [label = \"a-c,0,1,_\"];\n" +
+                "    S2 -> S1 [label = \"a-c,_\"];\n" +
+                "    S2 -> S0 [label = \"0,1\"];\n" +
+                "SPACE -> S2;\n" +
+                "}\n", write(DeterministicStateMachineTest.identifiers(), StateMachineWriter.DOT));
+    }
+
+    @Test
+    public void testTsv() {
+        NonDeterministicStateMachine<Character> nsm = new NonDeterministicStateMachine<>(new SimpleAlphabet("ab\t"));
+        NonDeterministicStateMachine.State first = nsm.addState(false);
+        NonDeterministicStateMachine.State second = nsm.addState(true);
+        nsm.addEdge(first, 'a', first);
+        nsm.addEdge(first, 'a', second);
+        nsm.addEdge(first, '\t', second);
+        nsm.setInitialState(first);
+        assertEquals("state\t0\t0\t0\n" +
+                "state\t1\t1\t1\n" +
+                "edge\t0\t0\ta\n" +
+                "edge\t0\t1\ta,\\t\n" +
+                "initial\t0\n", write(nsm, StateMachineWriter.TSV));
+    }
+
+    @Test
+    public void testGraphMl() throws Exception {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("<&>"));
+        DeterministicStateMachine.State state = dsm.addState(true, "\"quoted\"");
+        dsm.setEdge(state, '<', state);
+        dsm.setEdge(state, '&', state);
+        dsm.setEdge(state, '>', state);
+        dsm.setInitialState(state);
+        String xml = write(dsm.compile(), StateMachineWriter.GRAPHML);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml)));
+        assertEquals(1, document.getElementsByTagName("node").getLength());
+        assertEquals(1, document.getElementsByTagName("edge").getLength());
+        assertEquals("<,&,>", document.getElementsByTagName("edge").item(0).getTextContent());
+
+        xml = write(dsm, StateMachineWriter.GRAPHML);
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml)));
+        assertEquals("\"quoted\"truetrue", document.getElementsByTagName("node").item(0).getTextContent());
+    }
+
+    @Test
+    public void testMaxStates() {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("ab"));
+        DeterministicStateMachine.State[] states = new DeterministicStateMachine.State[10];
+        for (int i = states.length - 1; i >= 0; i--) {
+            states[i] = dsm.addState(i == states.length - 1);
+        }
+        for (int i = 0; i + 1 < states.length; i++) {
+            dsm.setEdge(states[i], 'a', states[i + 1]);
+            dsm.setEdge(states[i], 'b', states[0]);
+        }
+        dsm.setInitialState(states[0]);
+        String tsv = write(dsm, StateMachineWriter.TSV.withMaxStates(3));
+        assertEquals("state\t9\t0\t9\n" +
+                "state\t8\t0\t8\n" +
+                "state\t7\t0\t7\n" +
+                "edge\t9\t8\ta\n" +
+                "edge\t9\t9\tb\n" +
+                "edge\t8\t7\ta\n" +
+                "edge\t8\t9\tb\n" +
+                "edge\t7\t9\tb\n" +
+                "initial\t9\n", tsv);
+        assertEquals("", write(dsm, StateMachineWriter.TSV.withMaxStates(0)));
+        assertEquals(write(dsm, StateMachineWriter.DOT), write(dsm, StateMachineWriter.DOT.withMaxStates(10)));
+    }
+
+    @Test
+    public void testRanges() {
+        DeterministicStateMachine<Character> dsm = new DeterministicStateMachine<>(new SimpleAlphabet("zamqbcd"));
+        dsm.setInitialState(dsm.addState(false));
+        assertEquals("state\t0\t0\t0\n" +
+                "edge\t0\t0\tz,a,m,q,b-d\n" +
+                "initial\t0\n", write(dsm, StateMachineWriter.TSV));
+    }
+
+    private static String write(StateMachine<?> machine, StateMachineWriter writer) {
+        StringWriter result = new StringWriter();
+        machine.writeStateMachine(new PrintWriter(result), writer);
+        return result.toString();
+    }
+}